@@ -0,0 +1,14 @@
+package com.tw.go.plugin;
+
+import java.io.File;
+
+public class BenchmarkSettings {
+    // generated repositories are kept between runs, they only depend on the generator parameters
+    public static File getRepositoryRoot() {
+        return new File(System.getProperty("benchmark.repository.dir", "target/benchmark-repositories")).getAbsoluteFile();
+    }
+
+    public static File getWorkRoot() {
+        return new File(System.getProperty("benchmark.work.dir", new File(System.getProperty("java.io.tmpdir"), "git-poller-benchmarks").getPath())).getAbsoluteFile();
+    }
+}
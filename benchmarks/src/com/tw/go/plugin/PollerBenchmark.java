@@ -0,0 +1,111 @@
+package com.tw.go.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PollerBenchmark {
+    @Param({"1000"})
+    public int commits;
+
+    @Param({"1000", "10000"})
+    public int files;
+
+    @Param({"10"})
+    public int branches;
+
+    @Param({"5"})
+    public int filesPerCommit;
+
+    @Param({"50"})
+    public int newCommits;
+
+    private File workDir;
+    private String flyweight;
+    private String previousRevision;
+    private JGitHelper jGit;
+    private Repository repository;
+    private List<RevCommit> recentCommits;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File source = SyntheticRepository.getOrCreate(BenchmarkSettings.getRepositoryRoot(), commits, files, branches, filesPerCommit, 1024);
+        workDir = new File(BenchmarkSettings.getWorkRoot(), UUID.randomUUID().toString());
+        flyweight = new File(workDir, "flyweight").getAbsolutePath();
+        jGit = new JGitHelper(GitConfig.defaults());
+        jGit.cloneOrFetchBare(source.getAbsolutePath(), flyweight);
+
+        repository = RepositoryHandleCache.getInstance().acquire(source);
+        RevWalk walk = new RevWalk(repository);
+        try {
+            walk.markStart(walk.parseCommit(repository.resolve("master")));
+            recentCommits = new ArrayList<RevCommit>();
+            for (RevCommit commit : walk) {
+                if (recentCommits.size() == newCommits) {
+                    previousRevision = commit.getName();
+                    break;
+                }
+                recentCommits.add(commit);
+            }
+        } finally {
+            walk.release();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RepositoryHandleCache.getInstance().release(repository);
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    @Benchmark
+    public Revision latestRevision() throws Exception {
+        return jGit.getLatestRevision(flyweight);
+    }
+
+    @Benchmark
+    public List<Revision> newerRevisions() throws Exception {
+        return jGit.getNewerRevisions(flyweight, previousRevision);
+    }
+
+    // what getRevisionObj pays for each commit missing from the revision cache
+    @Benchmark
+    public List<Revision> diffUncached() throws Exception {
+        RevisionDiffer differ = new RevisionDiffer(repository, GitConfig.defaults());
+        try {
+            List<Revision> revisions = new ArrayList<Revision>();
+            for (RevCommit commit : recentCommits) {
+                revisions.add(differ.diff(commit));
+            }
+            return revisions;
+        } finally {
+            differ.release();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.tw.go.plugin;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// drives GitPluginImpl.handle the way a Go server with many pipelines does, while new commits keep arriving
+public class PollerLoadTest {
+    private final int materials = Integer.getInteger("load.materials", 2000);
+    private final int repositories = Integer.getInteger("load.repositories", 50);
+    private final int threads = Integer.getInteger("load.threads", 64);
+    private final int durationSeconds = Integer.getInteger("load.duration.seconds", 60);
+    private final int commitsPerSecond = Integer.getInteger("load.commits.per.second", 5);
+    private final double checkoutRatio = Double.parseDouble(System.getProperty("load.checkout.ratio", "0"));
+    private final long thinkMillis = Long.getLong("load.think.ms", 0L);
+    private final int repositoryCommits = Integer.getInteger("load.repository.commits", 1000);
+    private final int repositoryFiles = Integer.getInteger("load.repository.files", 1000);
+
+    private final Gson gson = new GsonBuilder().create();
+    private final GitPluginImpl plugin = new GitPluginImpl();
+    private final Map<String, PollerMetrics.Histogram> latencies = new ConcurrentHashMap<String, PollerMetrics.Histogram>();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong maxHeapUsed = new AtomicLong();
+
+    private File workDir;
+    private List<File> sources;
+    private String[] previousRevisions;
+
+    public static void main(String[] args) throws Exception {
+        new PollerLoadTest().run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        workDir = new File(BenchmarkSettings.getWorkRoot(), "load-" + System.currentTimeMillis());
+        sources = new ArrayList<File>();
+        for (int i = 0; i < repositories; i++) {
+            File template = SyntheticRepository.getOrCreate(BenchmarkSettings.getRepositoryRoot(), repositoryCommits, repositoryFiles, 10, 5, 1024);
+            File source = new File(workDir, "sources/repository-" + i + ".git");
+            FileUtils.copyDirectory(template, source);
+            sources.add(source);
+        }
+        previousRevisions = new String[materials];
+        for (String requestName : new String[]{GitPluginImpl.REQUEST_LATEST_REVISION, GitPluginImpl.REQUEST_LATEST_REVISIONS_SINCE, GitPluginImpl.REQUEST_CHECKOUT}) {
+            latencies.put(requestName, new PollerMetrics.Histogram());
+            failures.put(requestName, new AtomicLong());
+        }
+        System.out.println("polling " + materials + " materials of " + repositories + " repositories with " + threads + " threads for " + durationSeconds + "s, "
+                + commitsPerSecond + " commits/s");
+
+        ScheduledExecutorService background = Executors.newScheduledThreadPool(2, new DaemonThreadFactory("load-background"));
+        if (commitsPerSecond > 0) {
+            final SyntheticRepository writer = new SyntheticRepository(repositoryCommits, repositoryFiles, 10, 5, 1024, System.nanoTime());
+            final Random random = new Random();
+            background.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.appendCommit(sources.get(random.nextInt(sources.size())), "load commit " + commits.incrementAndGet());
+                    } catch (Exception e) {
+                        System.err.println("commit failed: " + e);
+                    }
+                }
+            }, 0, 1000000L / commitsPerSecond, TimeUnit.MICROSECONDS);
+        }
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        background.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                while (used > maxHeapUsed.get() && !maxHeapUsed.compareAndSet(maxHeapUsed.get(), used)) {
+                }
+            }
+        }, 0, 100, TimeUnit.MILLISECONDS);
+
+        long gcCount = getGcCount();
+        long gcMillis = getGcMillis();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final AtomicInteger nextMaterial = new AtomicInteger();
+        ExecutorService pollers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("load-poller"));
+        for (int i = 0; i < threads; i++) {
+            pollers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random();
+                    while (System.nanoTime() < end) {
+                        int material = (nextMaterial.getAndIncrement() & Integer.MAX_VALUE) % materials;
+                        poll(material, random);
+                        if (thinkMillis > 0) {
+                            try {
+                                Thread.sleep(thinkMillis);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        pollers.shutdown();
+        pollers.awaitTermination(durationSeconds + 600, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        background.shutdownNow();
+
+        report(elapsed, getGcCount() - gcCount, getGcMillis() - gcMillis);
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    private void poll(int material, Random random) {
+        String url = "file://" + sources.get(material % sources.size()).getAbsolutePath();
+        String previousRevision = previousRevisions[material];
+        Map<String, Object> request = new HashMap<String, Object>();
+        request.put("scm-configuration", configuration(url));
+        request.put("flyweight-folder", new File(workDir, "flyweight/material-" + material).getAbsolutePath());
+
+        String requestName;
+        if (previousRevision != null && random.nextDouble() < checkoutRatio) {
+            requestName = GitPluginImpl.REQUEST_CHECKOUT;
+            request.put("destination-folder", new File(workDir, "pipelines/material-" + material).getAbsolutePath());
+            request.put("revision", revision(previousRevision));
+        } else if (previousRevision == null) {
+            requestName = GitPluginImpl.REQUEST_LATEST_REVISION;
+        } else {
+            requestName = GitPluginImpl.REQUEST_LATEST_REVISIONS_SINCE;
+            request.put("previous-revision", revision(previousRevision));
+        }
+
+        DefaultGoPluginApiRequest apiRequest = new DefaultGoPluginApiRequest(GitPluginImpl.EXTENSION_NAME, "1.0", requestName);
+        apiRequest.setRequestBody(gson.toJson(request));
+        long start = System.nanoTime();
+        GoPluginApiResponse response = plugin.handle(apiRequest);
+        latencies.get(requestName).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        requests.incrementAndGet();
+        if (response.responseCode() != GitPluginImpl.SUCCESS_RESPONSE_CODE) {
+            failures.get(requestName).incrementAndGet();
+        } else if (response.responseBody() != null && !requestName.equals(GitPluginImpl.REQUEST_CHECKOUT)) {
+            previousRevisions[material] = getNewestRevision(response.responseBody());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getNewestRevision(String json) {
+        Map<String, Object> body = gson.fromJson(json, Map.class);
+        if (body.containsKey("revisions")) {
+            List<Map<String, Object>> revisions = (List<Map<String, Object>>) body.get("revisions");
+            return (String) revisions.get(0).get("revision");
+        }
+        return (String) body.get("revision");
+    }
+
+    private Map<String, Object> configuration(String url) {
+        Map<String, Object> configuration = new HashMap<String, Object>();
+        Map<String, String> value = new HashMap<String, String>();
+        value.put("value", url);
+        configuration.put(GitConfig.URL, value);
+        return configuration;
+    }
+
+    private Map<String, String> revision(String revision) {
+        Map<String, String> value = new HashMap<String, String>();
+        value.put("revision", revision);
+        return value;
+    }
+
+    private void report(long elapsedNanos, long gcCount, long gcMillis) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format("requests: %d in %.1fs (%.1f/s), commits: %d", requests.get(), seconds, requests.get() / seconds, commits.get()));
+        for (Map.Entry<String, PollerMetrics.Histogram> latency : latencies.entrySet()) {
+            if (latency.getValue().getCount() > 0) {
+                System.out.println(latency.getKey() + ": " + latency.getValue() + " failures=" + failures.get(latency.getKey()).get());
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println(String.format("heap: max used %dMB of %dMB, gc: %d collections, %dms (%.1f%% of run)",
+                maxHeapUsed.get() >> 20, runtime.maxMemory() >> 20, gcCount, gcMillis, 100.0 * gcMillis / (elapsedNanos / 1e6)));
+        System.out.println("plugin metrics:\n" + PollerMetrics.getInstance().getSnapshot());
+    }
+
+    private long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
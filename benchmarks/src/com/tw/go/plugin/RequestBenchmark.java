@@ -0,0 +1,95 @@
+package com.tw.go.plugin;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RequestBenchmark {
+    @Param({"1", "100", "500"})
+    public int revisions;
+
+    @Param({"10", "1000"})
+    public int modifiedFiles;
+
+    private final Gson gson = new GsonBuilder().create();
+    private final GitPluginImpl plugin = new GitPluginImpl();
+    private String latestRevisionsSinceBody;
+    private DefaultGoPluginApiRequest validationRequest;
+    private List<Revision> revisionObjs;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> configuration = new HashMap<String, Object>();
+        configuration.put(GitConfig.URL, value("https://example.com/repository.git"));
+        configuration.put(GitConfig.BRANCH, value("master"));
+        configuration.put(GitConfig.MAX_MODIFIED_FILES, value("1000"));
+        Map<String, Object> request = new HashMap<String, Object>();
+        request.put("scm-configuration", configuration);
+        request.put("flyweight-folder", "/var/lib/go-server/pipelines/flyweight/0d1c3f4e");
+        Map<String, Object> previousRevision = new HashMap<String, Object>();
+        previousRevision.put("revision", "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+        request.put("previous-revision", previousRevision);
+        latestRevisionsSinceBody = gson.toJson(request);
+
+        validationRequest = new DefaultGoPluginApiRequest(GitPluginImpl.EXTENSION_NAME, "1.0", GitPluginImpl.REQUEST_VALIDATE_SCM_CONFIGURATION);
+        validationRequest.setRequestBody(latestRevisionsSinceBody);
+
+        revisionObjs = new ArrayList<Revision>();
+        for (int i = 0; i < revisions; i++) {
+            List<ModifiedFile> files = new ArrayList<ModifiedFile>();
+            for (int j = 0; j < modifiedFiles; j++) {
+                files.add(new ModifiedFile("module-" + (j % 32) + "/src/main/java/File" + j + ".java", "modified"));
+            }
+            revisionObjs.add(new Revision(String.format("%040x", i), i * 60000, "commit " + i + "\n\nwith a <body>", "dev@example.com", files));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> parseRequest() {
+        return gson.fromJson(latestRevisionsSinceBody, SCMRequest.class).getConfiguration();
+    }
+
+    @Benchmark
+    public GoPluginApiResponse validateRequest() {
+        return plugin.handle(validationRequest);
+    }
+
+    @Benchmark
+    public String renderRevisions() throws Exception {
+        RevisionsJsonWriter writer = new RevisionsJsonWriter();
+        for (Revision revision : revisionObjs) {
+            writer.handle(revision);
+        }
+        return writer.toJson();
+    }
+
+    private Map<String, String> value(String value) {
+        Map<String, String> field = new HashMap<String, String>();
+        field.put("value", value);
+        return field;
+    }
+}
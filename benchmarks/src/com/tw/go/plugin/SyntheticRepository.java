@@ -0,0 +1,198 @@
+package com.tw.go.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// writes commits straight into the object database, so large histories take seconds instead of a checkout per commit
+public class SyntheticRepository {
+    private final int commits;
+    private final int files;
+    private final int branches;
+    private final int filesPerCommit;
+    private final int fileSize;
+    private final Random random;
+
+    public SyntheticRepository(int commits, int files, int branches, int filesPerCommit, int fileSize, long seed) {
+        this.commits = commits;
+        this.files = files;
+        this.branches = branches;
+        this.filesPerCommit = filesPerCommit;
+        this.fileSize = fileSize;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: SyntheticRepository <folder> [commits] [files] [branches] [files per commit] [file size]");
+            System.exit(1);
+        }
+        SyntheticRepository repository = new SyntheticRepository(
+                args.length > 1 ? Integer.parseInt(args[1]) : 1000,
+                args.length > 2 ? Integer.parseInt(args[2]) : 1000,
+                args.length > 3 ? Integer.parseInt(args[3]) : 10,
+                args.length > 4 ? Integer.parseInt(args[4]) : 5,
+                args.length > 5 ? Integer.parseInt(args[5]) : 1024,
+                42);
+        List<ObjectId> history = repository.generate(new File(args[0]));
+        System.out.println("generated " + history.size() + " commits in " + args[0]);
+    }
+
+    // cached generation for benchmarks: the same parameters always give the same repository
+    public static File getOrCreate(File root, int commits, int files, int branches, int filesPerCommit, int fileSize) throws IOException {
+        File folder = new File(root, "synthetic-c" + commits + "-f" + files + "-b" + branches + "-p" + filesPerCommit + "-s" + fileSize);
+        if (!new File(folder, "HEAD").exists()) {
+            FileUtils.deleteQuietly(folder);
+            new SyntheticRepository(commits, files, branches, filesPerCommit, fileSize, 42).generate(folder);
+        }
+        return folder;
+    }
+
+    public List<ObjectId> generate(File folder) throws IOException {
+        Repository repository;
+        try {
+            repository = Git.init().setBare(true).setDirectory(folder).call().getRepository();
+        } catch (GitAPIException e) {
+            throw new IOException("could not create " + folder, e);
+        }
+        ObjectInserter inserter = repository.newObjectInserter();
+        try {
+            Map<String, ObjectId> tree = new TreeMap<String, ObjectId>();
+            for (int i = 0; i < files; i++) {
+                tree.put(getPath(i), insertBlob(inserter));
+            }
+
+            List<ObjectId> history = new ArrayList<ObjectId>();
+            ObjectId parent = null;
+            long time = System.currentTimeMillis() - commits * 60000L;
+            for (int i = 0; i < commits; i++) {
+                for (int j = 0; j < filesPerCommit; j++) {
+                    tree.put(getPath(random.nextInt(Math.max(1, files + files / 10))), insertBlob(inserter));
+                }
+                parent = insertCommit(inserter, tree, parent, "commit " + i, time + i * 60000L);
+                history.add(parent);
+            }
+            inserter.flush();
+            updateRef(repository, Constants.R_HEADS + Constants.MASTER, parent);
+
+            for (int b = 0; b < branches && !history.isEmpty(); b++) {
+                ObjectId branchTip = history.get(random.nextInt(history.size()));
+                for (int i = 0; i < 3; i++) {
+                    tree.put(getPath(random.nextInt(Math.max(1, files))), insertBlob(inserter));
+                    branchTip = insertCommit(inserter, tree, branchTip, "branch " + b + " commit " + i, time + commits * 60000L + i);
+                }
+                inserter.flush();
+                updateRef(repository, Constants.R_HEADS + "branch-" + b, branchTip);
+            }
+            pack(repository);
+            return history;
+        } finally {
+            inserter.release();
+            repository.close();
+        }
+    }
+
+    // one more commit on master changing files of the current tip, as a developer pushing would
+    public synchronized ObjectId appendCommit(File folder, String message) throws IOException {
+        Repository repository = new FileRepositoryBuilder().setGitDir(folder).setMustExist(true).build();
+        ObjectInserter inserter = repository.newObjectInserter();
+        ObjectReader reader = repository.newObjectReader();
+        RevWalk walk = new RevWalk(reader);
+        try {
+            RevCommit tip = walk.parseCommit(repository.resolve(Constants.R_HEADS + Constants.MASTER));
+            Map<String, ObjectId> tree = new TreeMap<String, ObjectId>();
+            TreeWalk treeWalk = new TreeWalk(reader);
+            treeWalk.addTree(tip.getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                tree.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+            }
+            treeWalk.release();
+            for (int j = 0; j < filesPerCommit; j++) {
+                tree.put(getPath(random.nextInt(Math.max(1, files + files / 10))), insertBlob(inserter));
+            }
+            ObjectId commit = insertCommit(inserter, tree, tip, message, System.currentTimeMillis());
+            inserter.flush();
+            updateRef(repository, Constants.R_HEADS + Constants.MASTER, commit);
+            return commit;
+        } finally {
+            walk.release();
+            reader.release();
+            inserter.release();
+            repository.close();
+        }
+    }
+
+    private void pack(Repository repository) throws IOException {
+        try {
+            new Git(repository).gc().call();
+        } catch (GitAPIException e) {
+            throw new IOException("could not pack " + repository.getDirectory(), e);
+        }
+    }
+
+    private String getPath(int file) {
+        return "module-" + (file % 32) + "/package-" + (file % 7) + "/File" + file + ".java";
+    }
+
+    private ObjectId insertBlob(ObjectInserter inserter) throws IOException {
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(26));
+        }
+        return inserter.insert(Constants.OBJ_BLOB, content);
+    }
+
+    private ObjectId insertCommit(ObjectInserter inserter, Map<String, ObjectId> tree, ObjectId parent, String message, long time) throws IOException {
+        DirCache index = DirCache.newInCore();
+        DirCacheBuilder builder = index.builder();
+        for (Map.Entry<String, ObjectId> file : tree.entrySet()) {
+            DirCacheEntry entry = new DirCacheEntry(file.getKey());
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(file.getValue());
+            builder.add(entry);
+        }
+        builder.finish();
+
+        PersonIdent author = new PersonIdent("Synthetic", "synthetic@example.com", time, 0);
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(index.writeTree(inserter));
+        if (parent != null) {
+            commit.setParentId(parent);
+        }
+        commit.setAuthor(author);
+        commit.setCommitter(author);
+        commit.setMessage(message);
+        return inserter.insert(commit);
+    }
+
+    private void updateRef(Repository repository, String name, ObjectId id) throws IOException {
+        RefUpdate update = repository.updateRef(name);
+        update.setNewObjectId(id);
+        update.forceUpdate();
+    }
+}
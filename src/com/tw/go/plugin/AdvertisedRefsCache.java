@@ -0,0 +1,100 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class AdvertisedRefsCache {
+    private static final AdvertisedRefsCache INSTANCE = new AdvertisedRefsCache(
+            Long.getLong("git.poller.ls.remote.ttl.seconds", 0L) * 1000,
+            Integer.getInteger("git.poller.ls.remote.cache.size", 1000));
+
+    private final long ttl;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    AdvertisedRefsCache(long ttl, int maxEntries) {
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+    }
+
+    public static AdvertisedRefsCache getInstance() {
+        return INSTANCE;
+    }
+
+    // without a ttl a lookup costs a poll the same round trip as the fetch it could save, so polls just fetch
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    public Map<String, ObjectId> get(String url) throws Exception {
+        return get(url, Deadline.none());
+    }
+
+    public Map<String, ObjectId> get(String url, Deadline deadline) throws Exception {
+        synchronized (entries) {
+            Entry entry = entries.get(url);
+            if (entry != null && System.currentTimeMillis() - entry.advertisedAt < ttl) {
+                return entry.refs;
+            }
+        }
+        deadline.check("listing remote refs");
+        Map<String, ObjectId> refs = lsRemote(url, deadline);
+        if (ttl > 0) {
+            remember(url, new Entry(refs, System.currentTimeMillis()));
+        }
+        return refs;
+    }
+
+    public void invalidate(String url) {
+        synchronized (entries) {
+            entries.remove(url);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // expired entries go first, then the urls polled least recently
+    private void remember(String url, Entry entry) {
+        synchronized (entries) {
+            entries.put(url, entry);
+            for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                if (entry.advertisedAt - iterator.next().advertisedAt >= ttl) {
+                    iterator.remove();
+                }
+            }
+            for (Iterator<Entry> iterator = entries.values().iterator(); entries.size() > maxEntries && iterator.hasNext(); ) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    private Map<String, ObjectId> lsRemote(String url, Deadline deadline) throws Exception {
+        Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+        for (Ref ref : Git.lsRemoteRepository().setRemote(url).setHeads(true).setTimeout(deadline.getNetworkTimeoutSeconds()).call()) {
+            refs.put(ref.getName(), ref.getObjectId());
+        }
+        return Collections.unmodifiableMap(refs);
+    }
+
+    private static class Entry {
+        private final Map<String, ObjectId> refs;
+        private final long advertisedAt;
+
+        private Entry(Map<String, ObjectId> refs, long advertisedAt) {
+            this.refs = refs;
+            this.advertisedAt = advertisedAt;
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package com.tw.go.plugin;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+// generation numbers and parent positions of every commit, so ancestry questions never inflate a commit object
+public class CommitGraph {
+    private static Logger LOGGER = Logger.getLoggerFor(CommitGraph.class);
+
+    private static final String GRAPH_FILE = "git-poller-commit-graph";
+    private static final int MAGIC = 0x47504347;
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 24;
+    private static final String TIP_SUFFIX = "-tip";
+    // new commits go to a tip layer that is merged into the base once it outgrows a tenth of it,
+    // so an update rewrites the recent commits only and a full rewrite is paid once per tenth of growth
+    private static final int MIN_TIP_COMMITS = 1024;
+    private static final int TIP_RATIO = 10;
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("git.poller.commit.graph", "true"));
+    private static final Map<String, CommitGraph> GRAPHS = new ConcurrentHashMap<String, CommitGraph>();
+
+    private final File file;
+    private final File tipFile;
+    private final int minTipCommits;
+    private volatile Index index;
+    private volatile boolean loaded;
+
+    CommitGraph(File file) {
+        this(file, MIN_TIP_COMMITS);
+    }
+
+    CommitGraph(File file, int minTipCommits) {
+        this.file = file;
+        this.tipFile = new File(file.getPath() + TIP_SUFFIX);
+        this.minTipCommits = minTipCommits;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    public static CommitGraph forRepository(File gitDir) throws IOException {
+        String key = new File(gitDir.getCanonicalFile(), GRAPH_FILE).getPath();
+        CommitGraph graph = GRAPHS.get(key);
+        if (graph == null) {
+            synchronized (GRAPHS) {
+                graph = GRAPHS.get(key);
+                if (graph == null) {
+                    graph = new CommitGraph(new File(key));
+                    GRAPHS.put(key, graph);
+                }
+            }
+        }
+        return graph;
+    }
+
+    public boolean contains(AnyObjectId commit) {
+        Index current = getIndex();
+        return current != null && current.find(commit) >= 0;
+    }
+
+    public int size() {
+        Index current = getIndex();
+        return current == null ? 0 : current.count;
+    }
+
+    // adds the commits reachable from any ref that are not indexed yet, only those are parsed
+    public synchronized void update(Repository repository) throws IOException {
+        Index current = getIndex();
+        RevWalk walk = new RevWalk(repository);
+        walk.setRetainBody(false);
+        try {
+            Map<ObjectId, RevCommit> added = new HashMap<ObjectId, RevCommit>();
+            Deque<RevCommit> pending = new ArrayDeque<RevCommit>();
+            for (Ref ref : repository.getAllRefs().values()) {
+                if (ref.getObjectId() == null || (current != null && current.find(ref.getObjectId()) >= 0)) {
+                    continue;
+                }
+                try {
+                    // an annotated tag's ref names the tag, so whether its commit is indexed is only known once peeled
+                    RevCommit commit = walk.parseCommit(ref.getObjectId());
+                    if (current == null || current.find(commit) < 0) {
+                        pending.push(commit);
+                    }
+                } catch (IncorrectObjectTypeException e) {
+                    // a tag of a tree or a blob
+                } catch (MissingObjectException e) {
+                    LOGGER.warn("ref " + ref.getName() + " points to missing object " + ref.getObjectId().name() + " in " + repository.getDirectory());
+                }
+            }
+            while (!pending.isEmpty()) {
+                RevCommit commit = pending.pop();
+                if (added.containsKey(commit) || (current != null && current.find(commit) >= 0)) {
+                    continue;
+                }
+                walk.parseHeaders(commit);
+                added.put(commit, commit);
+                for (RevCommit parent : commit.getParents()) {
+                    if (!added.containsKey(parent) && (current == null || current.find(parent) < 0)) {
+                        pending.push(parent);
+                    }
+                }
+            }
+            if (!added.isEmpty()) {
+                write(current, added);
+                index = load();
+            }
+        } finally {
+            walk.release();
+        }
+    }
+
+    // commits reachable from tip but not from previous, newest first; null when either is not indexed
+    public List<ObjectId> commitsSince(AnyObjectId tip, AnyObjectId previous) {
+        final Index current = getIndex();
+        if (current == null) {
+            return null;
+        }
+        int tipPosition = current.find(tip);
+        int previousPosition = current.find(previous);
+        if (tipPosition < 0 || previousPosition < 0) {
+            return null;
+        }
+
+        // parents always have a lower generation, so every commit is reached from all its queued children before it is taken
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(64, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return current.getGeneration(b) - current.getGeneration(a);
+            }
+        });
+        BitSet queued = new BitSet();
+        BitSet uninteresting = new BitSet();
+        queued.set(previousPosition);
+        uninteresting.set(previousPosition);
+        queue.add(previousPosition);
+        int interestingQueued = 0;
+        if (!queued.get(tipPosition)) {
+            queued.set(tipPosition);
+            queue.add(tipPosition);
+            interestingQueued++;
+        }
+
+        List<Integer> since = new ArrayList<Integer>();
+        while (interestingQueued > 0) {
+            int commit = queue.poll();
+            boolean interesting = !uninteresting.get(commit);
+            if (interesting) {
+                interestingQueued--;
+                since.add(commit);
+            }
+            for (int i = current.getParentStart(commit); i < current.getParentStart(commit + 1); i++) {
+                int parent = current.getParent(i);
+                if (!queued.get(parent)) {
+                    queued.set(parent);
+                    queue.add(parent);
+                    if (interesting) {
+                        interestingQueued++;
+                    } else {
+                        uninteresting.set(parent);
+                    }
+                } else if (!interesting && !uninteresting.get(parent)) {
+                    uninteresting.set(parent);
+                    interestingQueued--;
+                }
+            }
+        }
+
+        Collections.sort(since, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byTime = compareInts(current.getCommitTime(b), current.getCommitTime(a));
+                return byTime != 0 ? byTime : compareInts(current.getGeneration(b), current.getGeneration(a));
+            }
+        });
+        List<ObjectId> ids = new ArrayList<ObjectId>(since.size());
+        for (int commit : since) {
+            ids.add(current.getId(commit));
+        }
+        return ids;
+    }
+
+    public boolean isAncestor(AnyObjectId ancestor, AnyObjectId descendant) {
+        Index current = getIndex();
+        if (current == null) {
+            return false;
+        }
+        int ancestorPosition = current.find(ancestor);
+        int descendantPosition = current.find(descendant);
+        if (ancestorPosition < 0 || descendantPosition < 0) {
+            return false;
+        }
+        int minGeneration = current.getGeneration(ancestorPosition);
+        BitSet seen = new BitSet();
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        pending.push(descendantPosition);
+        seen.set(descendantPosition);
+        while (!pending.isEmpty()) {
+            int commit = pending.pop();
+            if (commit == ancestorPosition) {
+                return true;
+            }
+            for (int i = current.getParentStart(commit); i < current.getParentStart(commit + 1); i++) {
+                int parent = current.getParent(i);
+                if (!seen.get(parent) && current.getGeneration(parent) >= minGeneration) {
+                    seen.set(parent);
+                    pending.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    private Index getIndex() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    index = load();
+                    loaded = true;
+                }
+            }
+        }
+        return index;
+    }
+
+    private Index load() {
+        Index base = load(file, null);
+        if (base == null) {
+            tipFile.delete();
+            return null;
+        }
+        Index tip = load(tipFile, base);
+        return tip != null ? tip : base;
+    }
+
+    private Index load(File layerFile, Index base) {
+        if (!layerFile.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(layerFile, "r");
+            ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("not a commit graph");
+            }
+            // a tip left behind by a merge that was interrupted before it was deleted
+            if (buffer.getInt(16) != (base == null ? 0 : base.count) || buffer.getInt(20) != (base == null ? 0 : base.parentCount)) {
+                throw new IOException("commit graph layer does not extend " + file);
+            }
+            Index loadedIndex = new Index(buffer, buffer.getInt(8), buffer.getInt(12), base);
+            if (buffer.limit() != loadedIndex.length()) {
+                throw new IOException("commit graph is " + buffer.limit() + " bytes instead of " + loadedIndex.length());
+            }
+            return loadedIndex;
+        } catch (IOException e) {
+            LOGGER.warn("discarding commit graph " + layerFile + ": ", e);
+            layerFile.delete();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(randomAccessFile);
+        }
+    }
+
+    // rewrites the tip layer with the new commits, or the base with every commit once the tip has grown too large
+    private void write(final Index current, Map<ObjectId, RevCommit> added) throws IOException {
+        Index base = current == null ? null : current.getBase();
+        int oldCount = current == null ? 0 : current.count;
+        boolean merge = base == null || oldCount - base.count + added.size() > Math.max(minTipCommits, base.count / TIP_RATIO);
+        Index kept = merge ? null : base;
+        int keptCount = kept == null ? 0 : kept.count;
+        int keptParentCount = kept == null ? 0 : kept.parentCount;
+
+        // the old commits that are rewritten, in id order; base and tip are sorted runs, so this is a merge of two
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        Integer[] old = new Integer[oldCount - keptCount];
+        for (int k = 0; k < old.length; k++) {
+            old[k] = keptCount + k;
+        }
+        Arrays.sort(old, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                current.copyRawTo(b, raw);
+                return current.compare(a, raw);
+            }
+        });
+        RevCommit[] fresh = added.values().toArray(new RevCommit[added.size()]);
+        Arrays.sort(fresh);
+        int count = old.length + fresh.length;
+
+        // merge the sorted old and new ids, remembering where each one ends up
+        int[] newPositions = new int[old.length];
+        Map<ObjectId, Integer> freshPositions = new HashMap<ObjectId, Integer>();
+        int i = 0;
+        int j = 0;
+        while (i < old.length || j < fresh.length) {
+            boolean takeOld = j == fresh.length;
+            if (i < old.length && j < fresh.length) {
+                fresh[j].copyRawTo(raw, 0);
+                takeOld = current.compare(old[i], raw) < 0;
+            }
+            if (takeOld) {
+                newPositions[old[i] - keptCount] = keptCount + i + j;
+                i++;
+            } else {
+                freshPositions.put(fresh[j], keptCount + i + j);
+                j++;
+            }
+        }
+
+        int[] commitTimes = new int[count];
+        int[] generations = new int[count];
+        List<int[]> parents = new ArrayList<int[]>(count);
+        for (int k = 0; k < count; k++) {
+            parents.add(null);
+        }
+        for (int k = 0; k < old.length; k++) {
+            int oldPosition = keptCount + k;
+            int position = newPositions[k] - keptCount;
+            commitTimes[position] = current.getCommitTime(oldPosition);
+            generations[position] = current.getGeneration(oldPosition);
+            int[] commitParents = new int[current.getParentStart(oldPosition + 1) - current.getParentStart(oldPosition)];
+            for (int p = 0; p < commitParents.length; p++) {
+                int parent = current.getParent(current.getParentStart(oldPosition) + p);
+                commitParents[p] = parent < keptCount ? parent : newPositions[parent - keptCount];
+            }
+            parents.set(position, commitParents);
+        }
+        for (RevCommit commit : fresh) {
+            int position = freshPositions.get(commit) - keptCount;
+            commitTimes[position] = commit.getCommitTime();
+            int[] commitParents = new int[commit.getParentCount()];
+            for (int p = 0; p < commitParents.length; p++) {
+                Integer freshParent = freshPositions.get(commit.getParent(p));
+                int parent = freshParent != null ? freshParent : current.find(commit.getParent(p));
+                commitParents[p] = freshParent != null || parent < keptCount ? parent : newPositions[parent - keptCount];
+            }
+            parents.set(position, commitParents);
+        }
+        for (RevCommit commit : fresh) {
+            computeGeneration(freshPositions.get(commit) - keptCount, generations, parents, kept);
+        }
+
+        int parentCount = 0;
+        for (int[] commitParents : parents) {
+            parentCount += commitParents.length;
+        }
+        File target = merge ? file : tipFile;
+        File temp = new File(target.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(parentCount);
+            out.writeInt(keptCount);
+            out.writeInt(keptParentCount);
+            i = 0;
+            j = 0;
+            while (i < old.length || j < fresh.length) {
+                if (j == fresh.length || (i < old.length && newPositions[old[i] - keptCount] < freshPositions.get(fresh[j]))) {
+                    current.copyRawTo(old[i++], raw);
+                } else {
+                    fresh[j++].copyRawTo(raw, 0);
+                }
+                out.write(raw);
+            }
+            for (int commitTime : commitTimes) {
+                out.writeInt(commitTime);
+            }
+            for (int generation : generations) {
+                out.writeInt(generation);
+            }
+            int parentStart = keptParentCount;
+            for (int[] commitParents : parents) {
+                out.writeInt(parentStart);
+                parentStart += commitParents.length;
+            }
+            out.writeInt(parentStart);
+            for (int[] commitParents : parents) {
+                for (int parent : commitParents) {
+                    out.writeInt(parent);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target)) {
+                throw new IOException("could not replace " + target);
+            }
+        }
+        if (merge) {
+            tipFile.delete();
+        }
+    }
+
+    // one more than the highest parent, without recursion since histories are deep
+    private void computeGeneration(int position, int[] generations, List<int[]> parents, Index kept) {
+        int keptCount = kept == null ? 0 : kept.count;
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        pending.push(position);
+        while (!pending.isEmpty()) {
+            int commit = pending.peek();
+            if (generations[commit] != 0) {
+                pending.pop();
+                continue;
+            }
+            int generation = 1;
+            boolean ready = true;
+            for (int parent : parents.get(commit)) {
+                int parentGeneration = parent < keptCount ? kept.getGeneration(parent) : generations[parent - keptCount];
+                if (parentGeneration == 0) {
+                    pending.push(parent - keptCount);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, parentGeneration + 1);
+                }
+            }
+            if (ready) {
+                generations[commit] = generation;
+                pending.pop();
+            }
+        }
+    }
+
+    private static int compareInts(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    // header, sorted ids, commit times, generations, parent offsets and the parent positions they point into;
+    // a tip layer numbers its commits after those of its base, so positions and parent offsets span both
+    private static class Index {
+        private final ByteBuffer buffer;
+        private final Index base;
+        private final int baseCount;
+        private final int baseParentCount;
+        private final int layerCount;
+        private final int layerParentCount;
+        private final int count;
+        private final int parentCount;
+        private final int commitTimes;
+        private final int generations;
+        private final int parentStarts;
+        private final int parents;
+
+        Index(ByteBuffer buffer, int layerCount, int layerParentCount, Index base) {
+            this.buffer = buffer;
+            this.base = base;
+            this.baseCount = base == null ? 0 : base.count;
+            this.baseParentCount = base == null ? 0 : base.parentCount;
+            this.layerCount = layerCount;
+            this.layerParentCount = layerParentCount;
+            this.count = baseCount + layerCount;
+            this.parentCount = baseParentCount + layerParentCount;
+            this.commitTimes = HEADER_LENGTH + layerCount * Constants.OBJECT_ID_LENGTH;
+            this.generations = commitTimes + layerCount * 4;
+            this.parentStarts = generations + layerCount * 4;
+            this.parents = parentStarts + (layerCount + 1) * 4;
+        }
+
+        Index getBase() {
+            return base == null ? this : base;
+        }
+
+        long length() {
+            return parents + (long) layerParentCount * 4;
+        }
+
+        int find(AnyObjectId id) {
+            if (base != null) {
+                int found = base.find(id);
+                if (found >= 0) {
+                    return found;
+                }
+            }
+            byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            id.copyRawTo(raw, 0);
+            int low = baseCount;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compare(middle, raw);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        int compare(int position, byte[] raw) {
+            if (position < baseCount) {
+                return base.compare(position, raw);
+            }
+            int offset = HEADER_LENGTH + (position - baseCount) * Constants.OBJECT_ID_LENGTH;
+            for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++) {
+                int difference = (buffer.get(offset + i) & 0xff) - (raw[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return 0;
+        }
+
+        void copyRawTo(int position, byte[] raw) {
+            if (position < baseCount) {
+                base.copyRawTo(position, raw);
+                return;
+            }
+            int offset = HEADER_LENGTH + (position - baseCount) * Constants.OBJECT_ID_LENGTH;
+            for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++) {
+                raw[i] = buffer.get(offset + i);
+            }
+        }
+
+        ObjectId getId(int position) {
+            byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            copyRawTo(position, raw);
+            return ObjectId.fromRaw(raw);
+        }
+
+        int getCommitTime(int position) {
+            return position < baseCount ? base.getCommitTime(position) : buffer.getInt(commitTimes + (position - baseCount) * 4);
+        }
+
+        int getGeneration(int position) {
+            return position < baseCount ? base.getGeneration(position) : buffer.getInt(generations + (position - baseCount) * 4);
+        }
+
+        int getParentStart(int position) {
+            return position < baseCount ? base.getParentStart(position) : buffer.getInt(parentStarts + (position - baseCount) * 4);
+        }
+
+        int getParent(int index) {
+            return index < baseParentCount ? base.getParent(index) : buffer.getInt(parents + (index - baseParentCount) * 4);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.tw.go.plugin;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final int priority;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public DaemonThreadFactory(String name) {
+        this(name, Thread.NORM_PRIORITY);
+    }
+
+    public DaemonThreadFactory(String name, int priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        return thread;
+    }
+}
@@ -0,0 +1,99 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+
+// the time left for one plugin request, shared by every lock wait and network call made on its behalf
+public class Deadline {
+    private static final int NETWORK_TIMEOUT_SECONDS = Integer.getInteger("git.poller.network.timeout.seconds", 60);
+    private static final long REQUEST_TIMEOUT_SECONDS = Long.getLong("git.poller.request.timeout.seconds", 600L);
+
+    private static final Deadline NONE = new Deadline(0, false);
+
+    private final long expiresAtNanos;
+    private final boolean limited;
+
+    private Deadline(long expiresAtNanos, boolean limited) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.limited = limited;
+    }
+
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), true);
+    }
+
+    public static Deadline forRequest() {
+        return REQUEST_TIMEOUT_SECONDS > 0 ? after(TimeUnit.SECONDS.toMillis(REQUEST_TIMEOUT_SECONDS)) : NONE;
+    }
+
+    public long remainingMillis() {
+        return limited ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime())) : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return limited && expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    public void check(String operation) throws TimeoutException {
+        if (isExpired()) {
+            throw new TimeoutException("request deadline passed before " + operation);
+        }
+    }
+
+    // connect and read timeout for a transport, never longer than what is left of the request; 0 means none
+    public int getNetworkTimeoutSeconds() {
+        if (!limited) {
+            return Math.max(0, NETWORK_TIMEOUT_SECONDS);
+        }
+        int remaining = (int) Math.max(1, (remainingMillis() + 999) / 1000);
+        return NETWORK_TIMEOUT_SECONDS > 0 ? Math.min(NETWORK_TIMEOUT_SECONDS, remaining) : remaining;
+    }
+
+    public void lock(Lock lock, String operation) throws Exception {
+        if (!limited) {
+            lock.lock();
+        } else if (!lock.tryLock(remainingMillis(), TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("request deadline passed waiting to " + operation);
+        }
+    }
+
+    // lets a transfer in progress notice the deadline, jgit checks between packets
+    public ProgressMonitor cancelling(final ProgressMonitor delegate) {
+        if (!limited) {
+            return delegate;
+        }
+        return new ProgressMonitor() {
+            @Override
+            public void start(int totalTasks) {
+                delegate.start(totalTasks);
+            }
+
+            @Override
+            public void beginTask(String title, int totalWork) {
+                delegate.beginTask(title, totalWork);
+            }
+
+            @Override
+            public void update(int completed) {
+                delegate.update(completed);
+            }
+
+            @Override
+            public void endTask() {
+                delegate.endTask();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return isExpired() || delegate.isCancelled();
+            }
+        };
+    }
+}
@@ -0,0 +1,177 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.lib.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class FolderLocks {
+    private static final FolderLocks INSTANCE = new FolderLocks();
+
+    private final Map<String, Entry> locks = new HashMap<String, Entry>();
+    private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<String, FutureTask<?>>();
+
+    FolderLocks() {
+    }
+
+    public static FolderLocks getInstance() {
+        return INSTANCE;
+    }
+
+    // one lock per canonical path, dropped again once nobody holds or waits for it
+    public Lock lockFor(String folder) {
+        return new FolderLock(canonicalPath(new File(folder)));
+    }
+
+    public Lock lockForGitDir(File gitDir) {
+        File folder = Constants.DOT_GIT.equals(gitDir.getName()) ? gitDir.getParentFile() : gitDir;
+        return lockFor(folder.getPath());
+    }
+
+    public <T> T singleFlight(String key, Callable<T> work) throws Exception {
+        return singleFlight(key, work, Deadline.none());
+    }
+
+    // callers asking for the same key while a call is in flight wait for it, until their deadline, and share its outcome
+    @SuppressWarnings("unchecked")
+    public <T> T singleFlight(String key, Callable<T> work, Deadline deadline) throws Exception {
+        FutureTask<T> task = new FutureTask<T>(work);
+        FutureTask<T> running = (FutureTask<T>) inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+        try {
+            return running.isDone() ? running.get() : running.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new TimeoutException("request deadline passed waiting for " + key.replace('\n', ' '));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    int size() {
+        synchronized (locks) {
+            return locks.size();
+        }
+    }
+
+    private Entry acquire(String path) {
+        synchronized (locks) {
+            Entry entry = locks.get(path);
+            if (entry == null) {
+                entry = new Entry();
+                locks.put(path, entry);
+            }
+            entry.users++;
+            return entry;
+        }
+    }
+
+    private void release(String path, Entry entry) {
+        synchronized (locks) {
+            if (--entry.users == 0) {
+                locks.remove(path);
+            }
+        }
+    }
+
+    private String canonicalPath(File folder) {
+        try {
+            return folder.getCanonicalPath();
+        } catch (IOException e) {
+            return folder.getAbsolutePath();
+        }
+    }
+
+    private static class Entry {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users;
+    }
+
+    private class FolderLock implements Lock {
+        private final String path;
+
+        private FolderLock(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void lock() {
+            acquire(path).lock.lock();
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            Entry entry = acquire(path);
+            try {
+                entry.lock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                release(path, entry);
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            Entry entry = acquire(path);
+            if (entry.lock.tryLock()) {
+                return true;
+            }
+            release(path, entry);
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            Entry entry = acquire(path);
+            boolean locked = false;
+            try {
+                locked = entry.lock.tryLock(time, unit);
+                return locked;
+            } finally {
+                if (!locked) {
+                    release(path, entry);
+                }
+            }
+        }
+
+        // the entry cannot be dropped while this thread still counts as a user of it
+        @Override
+        public void unlock() {
+            Entry entry;
+            synchronized (locks) {
+                entry = locks.get(path);
+            }
+            if (entry == null) {
+                throw new IllegalMonitorStateException("lock for " + path + " is not held");
+            }
+            entry.lock.unlock();
+            release(path, entry);
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("folder locks have no conditions");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class GitConfig {
+    public static final String URL = "url";
+    public static final String BRANCH = "branch";
+    public static final String RENAME_DETECTION_LIMIT = "rename_detection_limit";
+    public static final String MAX_MODIFIED_FILES = "max_modified_files";
+    public static final String SINGLE_BRANCH_FETCH = "single_branch_fetch";
+    public static final String INCREMENTAL_CHECKOUT = "incremental_checkout";
+    public static final String PRESERVE_IGNORED = "preserve_ignored";
+    public static final String SPARSE_PATHS = "sparse_paths";
+    public static final String INCLUDES = "includes";
+    public static final String EXCLUDES = "excludes";
+
+    public static final String DEFAULT_BRANCH = Constants.MASTER;
+    public static final int DEFAULT_RENAME_DETECTION_LIMIT = 1000;
+    public static final int DEFAULT_MAX_MODIFIED_FILES = 1000;
+
+    private final String url;
+    private final String branch;
+    private final int renameDetectionLimit;
+    private final int maxModifiedFiles;
+    private final boolean singleBranchFetch;
+    private final boolean incrementalCheckout;
+    private final boolean preserveIgnored;
+    private final List<String> sparsePaths;
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    public GitConfig(Map<String, String> configuration) {
+        url = configuration.get(URL);
+        branch = isBlank(configuration.get(BRANCH)) || !isValidBranch(configuration.get(BRANCH)) ? DEFAULT_BRANCH : configuration.get(BRANCH).trim();
+        renameDetectionLimit = getInt(configuration, RENAME_DETECTION_LIMIT, DEFAULT_RENAME_DETECTION_LIMIT);
+        maxModifiedFiles = getInt(configuration, MAX_MODIFIED_FILES, DEFAULT_MAX_MODIFIED_FILES);
+        singleBranchFetch = Boolean.parseBoolean(trim(configuration.get(SINGLE_BRANCH_FETCH)));
+        incrementalCheckout = Boolean.parseBoolean(trim(configuration.get(INCREMENTAL_CHECKOUT)));
+        preserveIgnored = !"false".equalsIgnoreCase(trim(configuration.get(PRESERVE_IGNORED)));
+        sparsePaths = getPatterns(configuration, SPARSE_PATHS);
+        includes = getPatterns(configuration, INCLUDES);
+        excludes = getPatterns(configuration, EXCLUDES);
+    }
+
+    public static GitConfig defaults() {
+        return new GitConfig(Collections.<String, String>emptyMap());
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public int getRenameDetectionLimit() {
+        return renameDetectionLimit;
+    }
+
+    public int getMaxModifiedFiles() {
+        return maxModifiedFiles;
+    }
+
+    public boolean isSingleBranchFetch() {
+        return singleBranchFetch;
+    }
+
+    public boolean isIncrementalCheckout() {
+        return incrementalCheckout;
+    }
+
+    public boolean isPreserveIgnored() {
+        return preserveIgnored;
+    }
+
+    public List<String> getSparsePaths() {
+        return sparsePaths;
+    }
+
+    public boolean isSparseCheckout() {
+        return !sparsePaths.isEmpty();
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public boolean hasPathFilter() {
+        return !includes.isEmpty() || !excludes.isEmpty();
+    }
+
+    public static boolean isValidBranch(String value) {
+        return isBlank(value) || Repository.isValidRefName(Constants.R_HEADS + value.trim());
+    }
+
+    public static boolean isValidBoolean(String value) {
+        return isBlank(value) || value.trim().equalsIgnoreCase("true") || value.trim().equalsIgnoreCase("false");
+    }
+
+    public static boolean isValidInt(String value) {
+        if (isBlank(value)) {
+            return true;
+        }
+        try {
+            return Integer.parseInt(value.trim()) >= 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int getInt(Map<String, String> configuration, String key, int defaultValue) {
+        String value = configuration.get(key);
+        if (isBlank(value) || !isValidInt(value)) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    private static List<String> getPatterns(Map<String, String> configuration, String key) {
+        List<String> patterns = new ArrayList<String>();
+        String value = configuration.get(key);
+        if (!isBlank(value)) {
+            for (String pattern : value.split(",")) {
+                String trimmed = pattern.trim();
+                while (trimmed.startsWith("/")) {
+                    trimmed = trimmed.substring(1);
+                }
+                if (!trimmed.isEmpty()) {
+                    patterns.add(trimmed);
+                }
+            }
+        }
+        return Collections.unmodifiableList(patterns);
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -1,5 +1,6 @@
 package com.tw.go.plugin;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.GoPlugin;
@@ -10,13 +11,11 @@ import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.validator.routines.UrlValidator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static java.util.Arrays.asList;
@@ -36,10 +35,13 @@ public class GitPluginImpl implements GoPlugin {
     public static final String REQUEST_LATEST_REVISIONS_SINCE = "latest-revisions-since";
     public static final String REQUEST_CHECKOUT = "checkout";
 
-    private static final String DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
     public static final int SUCCESS_RESPONSE_CODE = 200;
     public static final int INTERNAL_ERROR_RESPONSE_CODE = 500;
 
+    private static final Gson GSON = new GsonBuilder().create();
+    private static final GoPluginApiResponse SCM_CONFIGURATION_RESPONSE = handleSCMConfiguration();
+    private static final GoPluginApiResponse SCM_VIEW_RESPONSE = handleSCMView();
+
     @Override
     public void initializeGoApplicationAccessor(GoApplicationAccessor goApplicationAccessor) {
         // ignore
@@ -48,14 +50,9 @@ public class GitPluginImpl implements GoPlugin {
     @Override
     public GoPluginApiResponse handle(GoPluginApiRequest goPluginApiRequest) {
         if (goPluginApiRequest.requestName().equals(REQUEST_SCM_CONFIGURATION)) {
-            return handleSCMConfiguration();
+            return SCM_CONFIGURATION_RESPONSE;
         } else if (goPluginApiRequest.requestName().equals(REQUEST_SCM_VIEW)) {
-            try {
-                return handleSCMView();
-            } catch (IOException e) {
-                String message = "Failed to find template: " + e.getMessage();
-                return renderJSON(500, message);
-            }
+            return SCM_VIEW_RESPONSE;
         } else if (goPluginApiRequest.requestName().equals(REQUEST_VALIDATE_SCM_CONFIGURATION)) {
             return handleSCMValidation(goPluginApiRequest);
         } else if (goPluginApiRequest.requestName().equals(REQUEST_CHECK_SCM_CONNECTION)) {
@@ -75,21 +72,36 @@ public class GitPluginImpl implements GoPlugin {
         return new GoPluginIdentifier(EXTENSION_NAME, goSupportedVersions);
     }
 
-    private GoPluginApiResponse handleSCMConfiguration() {
+    private static GoPluginApiResponse handleSCMConfiguration() {
         Map<String, Object> response = new HashMap<String, Object>();
         response.put("url", createField("URL", null, true, true, false, "0"));
+        response.put(GitConfig.BRANCH, createField("Branch", GitConfig.DEFAULT_BRANCH, true, false, false, "1"));
+        response.put(GitConfig.RENAME_DETECTION_LIMIT, createField("Rename Detection Limit", String.valueOf(GitConfig.DEFAULT_RENAME_DETECTION_LIMIT), false, false, false, "2"));
+        response.put(GitConfig.MAX_MODIFIED_FILES, createField("Max Modified Files", String.valueOf(GitConfig.DEFAULT_MAX_MODIFIED_FILES), false, false, false, "3"));
+        response.put(GitConfig.SINGLE_BRANCH_FETCH, createField("Single Branch Fetch", "false", false, false, false, "4"));
+        // pipelines watching different paths of one repository are different materials
+        response.put(GitConfig.INCLUDES, createField("Include Paths", null, true, false, false, "5"));
+        response.put(GitConfig.EXCLUDES, createField("Exclude Paths", null, true, false, false, "6"));
+        response.put(GitConfig.INCREMENTAL_CHECKOUT, createField("Incremental Checkout", "false", false, false, false, "7"));
+        response.put(GitConfig.PRESERVE_IGNORED, createField("Preserve Ignored Files", "true", false, false, false, "8"));
+        response.put(GitConfig.SPARSE_PATHS, createField("Sparse Checkout Paths", null, true, false, false, "9"));
         return renderJSON(SUCCESS_RESPONSE_CODE, response);
     }
 
-    private GoPluginApiResponse handleSCMView() throws IOException {
-        Map<String, Object> response = new HashMap<String, Object>();
-        response.put("displayValue", "JGit");
-        response.put("template", IOUtils.toString(getClass().getResourceAsStream("/views/scm.template.html"), "UTF-8"));
-        return renderJSON(SUCCESS_RESPONSE_CODE, response);
+    private static GoPluginApiResponse handleSCMView() {
+        try {
+            Map<String, Object> response = new HashMap<String, Object>();
+            response.put("displayValue", "JGit");
+            response.put("template", IOUtils.toString(GitPluginImpl.class.getResourceAsStream("/views/scm.template.html"), "UTF-8"));
+            return renderJSON(SUCCESS_RESPONSE_CODE, response);
+        } catch (IOException e) {
+            String message = "Failed to find template: " + e.getMessage();
+            return renderJSON(INTERNAL_ERROR_RESPONSE_CODE, message);
+        }
     }
 
     private GoPluginApiResponse handleSCMValidation(GoPluginApiRequest goPluginApiRequest) {
-        final Map<String, String> configuration = keyValuePairs(goPluginApiRequest, "scm-configuration");
+        final Map<String, String> configuration = parse(goPluginApiRequest).getConfiguration();
 
         List<Map<String, Object>> response = new ArrayList<Map<String, Object>>();
         validate(response, new FieldValidator() {
@@ -114,29 +126,64 @@ public class GitPluginImpl implements GoPlugin {
                 }
             }
         });
+        validate(response, new FieldValidator() {
+            @Override
+            public void validate(Map<String, Object> fieldValidation) {
+                if (!GitConfig.isValidBranch(configuration.get(GitConfig.BRANCH))) {
+                    fieldValidation.put("key", GitConfig.BRANCH);
+                    fieldValidation.put("message", "Branch is not a valid branch name");
+                }
+            }
+        });
+        validateNonNegativeNumber(response, configuration, GitConfig.RENAME_DETECTION_LIMIT, "Rename Detection Limit");
+        validateNonNegativeNumber(response, configuration, GitConfig.MAX_MODIFIED_FILES, "Max Modified Files");
+        validateBoolean(response, configuration, GitConfig.SINGLE_BRANCH_FETCH, "Single Branch Fetch");
+        validateBoolean(response, configuration, GitConfig.INCREMENTAL_CHECKOUT, "Incremental Checkout");
+        validateBoolean(response, configuration, GitConfig.PRESERVE_IGNORED, "Preserve Ignored Files");
         return renderJSON(SUCCESS_RESPONSE_CODE, response);
     }
 
+    private void validateNonNegativeNumber(List<Map<String, Object>> response, final Map<String, String> configuration, final String key, final String displayName) {
+        validate(response, new FieldValidator() {
+            @Override
+            public void validate(Map<String, Object> fieldValidation) {
+                if (!GitConfig.isValidInt(configuration.get(key))) {
+                    fieldValidation.put("key", key);
+                    fieldValidation.put("message", displayName + " should be a non-negative number");
+                }
+            }
+        });
+    }
+
+    private void validateBoolean(List<Map<String, Object>> response, final Map<String, String> configuration, final String key, final String displayName) {
+        validate(response, new FieldValidator() {
+            @Override
+            public void validate(Map<String, Object> fieldValidation) {
+                if (!GitConfig.isValidBoolean(configuration.get(key))) {
+                    fieldValidation.put("key", key);
+                    fieldValidation.put("message", displayName + " should be true or false");
+                }
+            }
+        });
+    }
+
     private GoPluginApiResponse handleSCMCheckConnection(GoPluginApiRequest goPluginApiRequest) {
-        Map<String, String> configuration = keyValuePairs(goPluginApiRequest, "scm-configuration");
+        GitConfig gitConfig = new GitConfig(parse(goPluginApiRequest).getConfiguration());
 
         Map<String, Object> response = new HashMap<String, Object>();
         ArrayList<String> messages = new ArrayList<String>();
         try {
-            URL url = new URL(configuration.get("url"));
-            URLConnection connection = url.openConnection();
-            connection.connect();
-            response.put("status", "success");
-            messages.add("Could connect to URL successfully");
-        } catch (MalformedURLException e) {
-            response.put("status", "failure");
-            messages.add("Malformed URL");
-        } catch (IOException e) {
-            response.put("status", "failure");
-            messages.add("Could not connect to URL");
+            Map<String, ObjectId> refs = AdvertisedRefsCache.getInstance().get(gitConfig.getUrl(), Deadline.forRequest());
+            if (refs.containsKey(Constants.R_HEADS + gitConfig.getBranch())) {
+                response.put("status", "success");
+                messages.add("Could connect to URL successfully");
+            } else {
+                response.put("status", "failure");
+                messages.add("Could connect to URL but branch " + gitConfig.getBranch() + " does not exist");
+            }
         } catch (Exception e) {
             response.put("status", "failure");
-            messages.add(e.getMessage());
+            messages.add(e.getMessage() == null ? "Could not connect to URL" : "Could not connect to URL: " + e.getMessage());
         }
 
         response.put("messages", messages);
@@ -144,79 +191,83 @@ public class GitPluginImpl implements GoPlugin {
     }
 
     private GoPluginApiResponse handleGetLatestRevision(GoPluginApiRequest goPluginApiRequest) {
-        Map<String, String> configuration = keyValuePairs(goPluginApiRequest, "scm-configuration");
-        String url = configuration.get("url");
-        String flyweightFolder = (String) getValueFor(goPluginApiRequest, "flyweight-folder");
+        SCMRequest request = parse(goPluginApiRequest);
+        String url = request.getConfiguration().get("url");
+        String flyweightFolder = request.getFlyweightFolder();
 
         LOGGER.warn("flyweight: " + flyweightFolder);
 
+        long start = System.nanoTime();
         try {
-            JGitHelper jGit = new JGitHelper();
-            jGit.cloneOrFetch(url, flyweightFolder);
-
-            Revision revision = jGit.getLatestRevision(flyweightFolder);
+            Revision revision;
+            if (RevisionRefresher.getInstance().isEnabled()) {
+                revision = RevisionRefresher.getInstance().getLatestRevision(url, flyweightFolder, request.getConfiguration());
+            } else {
+                JGitHelper jGit = new JGitHelper(new GitConfig(request.getConfiguration()), Deadline.forRequest());
+                jGit.cloneOrFetchBare(url, flyweightFolder);
+                revision = jGit.getLatestRevision(flyweightFolder);
+            }
 
             if (revision == null) {
                 return renderJSON(SUCCESS_RESPONSE_CODE, null);
             } else {
-                Map<String, Object> revisionMap = getRevisionMap(revision);
-                return renderJSON(SUCCESS_RESPONSE_CODE, revisionMap);
+                return renderResponse(SUCCESS_RESPONSE_CODE, RevisionsJsonWriter.toJson(revision));
             }
         } catch (Throwable t) {
             LOGGER.warn("get latest revision: ", t);
             return renderJSON(INTERNAL_ERROR_RESPONSE_CODE, null);
+        } finally {
+            PollerMetrics.getInstance().recordRequest(REQUEST_LATEST_REVISION, url, start);
         }
     }
 
     private GoPluginApiResponse handleLatestRevisionSince(GoPluginApiRequest goPluginApiRequest) {
-        Map<String, String> configuration = keyValuePairs(goPluginApiRequest, "scm-configuration");
-        String url = configuration.get("url");
-        String flyweightFolder = (String) getValueFor(goPluginApiRequest, "flyweight-folder");
-        Map<String, Object> previousRevisionMap = getMapFor(goPluginApiRequest, "previous-revision");
-        String previousRevision = (String) previousRevisionMap.get("revision");
+        SCMRequest request = parse(goPluginApiRequest);
+        String url = request.getConfiguration().get("url");
+        String flyweightFolder = request.getFlyweightFolder();
+        String previousRevision = request.getPreviousRevision();
 
         LOGGER.warn("flyweight: " + flyweightFolder + ". previous commit: " + previousRevision);
 
+        long start = System.nanoTime();
         try {
-            JGitHelper jGit = new JGitHelper();
-            jGit.cloneOrFetch(url, flyweightFolder);
+            JGitHelper jGit = new JGitHelper(new GitConfig(request.getConfiguration()), Deadline.forRequest());
+            if (RevisionRefresher.getInstance().isEnabled()) {
+                RevisionRefresher.getInstance().awaitFetched(url, flyweightFolder, request.getConfiguration());
+            } else {
+                jGit.cloneOrFetchBare(url, flyweightFolder);
+            }
 
-            List<Revision> newerRevisions = jGit.getNewerRevisions(flyweightFolder, previousRevision);
+            RevisionsJsonWriter revisionsWriter = new RevisionsJsonWriter();
+            jGit.walkNewerRevisions(flyweightFolder, previousRevision, revisionsWriter);
 
-            if (newerRevisions == null || newerRevisions.isEmpty()) {
+            if (revisionsWriter.getCount() == 0) {
                 return renderJSON(SUCCESS_RESPONSE_CODE, null);
             } else {
-                LOGGER.warn("new commits: " + newerRevisions.size());
+                LOGGER.warn("new commits: " + revisionsWriter.getCount());
 
-                Map<String, Object> response = new HashMap<String, Object>();
-                List<Map> revisions = new ArrayList<Map>();
-                for (Revision revisionObj : newerRevisions) {
-                    Map<String, Object> revisionMap = getRevisionMap(revisionObj);
-                    revisions.add(revisionMap);
-                }
-                response.put("revisions", revisions);
-                return renderJSON(SUCCESS_RESPONSE_CODE, response);
+                return renderResponse(SUCCESS_RESPONSE_CODE, revisionsWriter.toJson());
             }
         } catch (Throwable t) {
             LOGGER.warn("get latest revisions since: ", t);
             return renderJSON(INTERNAL_ERROR_RESPONSE_CODE, null);
+        } finally {
+            PollerMetrics.getInstance().recordRequest(REQUEST_LATEST_REVISIONS_SINCE, url, start);
         }
     }
 
     private GoPluginApiResponse handleCheckout(GoPluginApiRequest goPluginApiRequest) {
-        Map<String, String> configuration = keyValuePairs(goPluginApiRequest, "scm-configuration");
-        String url = configuration.get("url");
-        String destinationFolder = (String) getValueFor(goPluginApiRequest, "destination-folder");
-        Map<String, Object> revisionMap = getMapFor(goPluginApiRequest, "revision");
-        String revision = (String) revisionMap.get("revision");
+        SCMRequest request = parse(goPluginApiRequest);
+        String url = request.getConfiguration().get("url");
+        String destinationFolder = request.getDestinationFolder();
+        String revision = request.getRevision();
 
         LOGGER.warn("destination: " + destinationFolder + ". commit: " + revision);
 
+        long start = System.nanoTime();
         try {
-            JGitHelper jGit = new JGitHelper();
-            jGit.cloneOrFetch(url, destinationFolder);
-
-            jGit.checkoutToRevision(destinationFolder, revision);
+            JGitHelper jGit = new JGitHelper(new GitConfig(request.getConfiguration()), Deadline.forRequest());
+            jGit.checkout(url, destinationFolder, revision);
 
             Map<String, Object> response = new HashMap<String, Object>();
             ArrayList<String> messages = new ArrayList<String>();
@@ -228,6 +279,8 @@ public class GitPluginImpl implements GoPlugin {
         } catch (Throwable t) {
             LOGGER.warn("checkout: ", t);
             return renderJSON(INTERNAL_ERROR_RESPONSE_CODE, null);
+        } finally {
+            PollerMetrics.getInstance().recordRequest(REQUEST_CHECKOUT, url, start);
         }
     }
 
@@ -239,46 +292,12 @@ public class GitPluginImpl implements GoPlugin {
         }
     }
 
-    private Map<String, Object> getRevisionMap(Revision revision) {
-        Map<String, Object> response = new HashMap<String, Object>();
-        response.put("revision", revision.getRevision());
-        response.put("timestamp", new SimpleDateFormat(DATE_PATTERN).format(revision.getTimestamp()));
-        response.put("revisionComment", revision.getComment());
-        List<Map> modifiedFilesMapList = new ArrayList<Map>();
-        for (ModifiedFile modifiedFile : revision.getModifiedFiles()) {
-            Map<String, String> modifiedFileMap = new HashMap<String, String>();
-            modifiedFileMap.put("fileName", modifiedFile.getFileName());
-            modifiedFileMap.put("action", modifiedFile.getAction());
-            modifiedFilesMapList.add(modifiedFileMap);
-        }
-        response.put("modifiedFiles", modifiedFilesMapList);
-        return response;
-    }
-
-    private Map<String, Object> getMapFor(GoPluginApiRequest goPluginApiRequest, String field) {
-        Map<String, Object> map = (Map<String, Object>) new GsonBuilder().create().fromJson(goPluginApiRequest.requestBody(), Object.class);
-        Map<String, Object> fieldProperties = (Map<String, Object>) map.get(field);
-        return fieldProperties;
-    }
-
-    private Object getValueFor(GoPluginApiRequest goPluginApiRequest, String field) {
-        Map<String, Object> map = (Map<String, Object>) new GsonBuilder().create().fromJson(goPluginApiRequest.requestBody(), Object.class);
-        return map.get(field);
+    private SCMRequest parse(GoPluginApiRequest goPluginApiRequest) {
+        SCMRequest request = GSON.fromJson(goPluginApiRequest.requestBody(), SCMRequest.class);
+        return request == null ? new SCMRequest() : request;
     }
 
-    private Map<String, String> keyValuePairs(GoPluginApiRequest goPluginApiRequest, String mainKey) {
-        Map<String, String> keyValuePairs = new HashMap<String, String>();
-        Map<String, Object> map = (Map<String, Object>) new GsonBuilder().create().fromJson(goPluginApiRequest.requestBody(), Object.class);
-        Map<String, Object> fieldsMap = (Map<String, Object>) map.get(mainKey);
-        for (String field : fieldsMap.keySet()) {
-            Map<String, Object> fieldProperties = (Map<String, Object>) fieldsMap.get(field);
-            String value = (String) fieldProperties.get("value");
-            keyValuePairs.put(field, value);
-        }
-        return keyValuePairs;
-    }
-
-    private Map<String, Object> createField(String displayName, String defaultValue, boolean isPartOfIdentity, boolean isRequired, boolean isSecure, String displayOrder) {
+    private static Map<String, Object> createField(String displayName, String defaultValue, boolean isPartOfIdentity, boolean isRequired, boolean isSecure, String displayOrder) {
         Map<String, Object> fieldProperties = new HashMap<String, Object>();
         fieldProperties.put("display-name", displayName);
         fieldProperties.put("default-value", defaultValue);
@@ -289,8 +308,11 @@ public class GitPluginImpl implements GoPlugin {
         return fieldProperties;
     }
 
-    private GoPluginApiResponse renderJSON(final int responseCode, Object response) {
-        final String json = response == null ? null : new GsonBuilder().create().toJson(response);
+    private static GoPluginApiResponse renderJSON(final int responseCode, Object response) {
+        return renderResponse(responseCode, response == null ? null : GSON.toJson(response));
+    }
+
+    private static GoPluginApiResponse renderResponse(final int responseCode, final String json) {
         return new GoPluginApiResponse() {
             @Override
             public int responseCode() {
@@ -1,32 +1,251 @@
 package com.tw.go.plugin;
 
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.*;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FS;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
 
 public class JGitHelper {
+    private static Logger LOGGER = Logger.getLoggerFor(JGitHelper.class);
+
+    static final int DIFF_THREADS = Math.max(1, Integer.getInteger("git.poller.diff.threads", Runtime.getRuntime().availableProcessors()));
+    static final int DIFF_WINDOW_PER_THREAD = 8;
+    private static final long MAINTENANCE_CHECK_MILLIS = 100;
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newFixedThreadPool(DIFF_THREADS, new DaemonThreadFactory("git-poller-diff"));
+
+    private static final RefSpec ALL_BRANCHES = new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*");
+    private static final RefSpec MIRROR_BRANCHES = new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*");
+
+    static {
+        StorageConfig.getInstance().install();
+    }
+
+    private final RepositoryHandleCache repositories = RepositoryHandleCache.getInstance();
+    private final FolderLocks locks = FolderLocks.getInstance();
+    private final LocalMirrors mirrors = LocalMirrors.getInstance();
+    private final PollerMetrics metrics = PollerMetrics.getInstance();
+    private final GitConfig gitConfig;
+    private final int maxRevisions;
+    private final Deadline deadline;
+    private final int diffThreads;
+
+    public JGitHelper() {
+        this(GitConfig.defaults());
+    }
+
+    public JGitHelper(GitConfig gitConfig) {
+        this(gitConfig, Deadline.none());
+    }
+
+    public JGitHelper(GitConfig gitConfig, Deadline deadline) {
+        this(gitConfig, Integer.getInteger("git.poller.max.revisions", 500), deadline);
+    }
+
+    public JGitHelper(GitConfig gitConfig, int maxRevisions) {
+        this(gitConfig, maxRevisions, Deadline.none());
+    }
+
+    public JGitHelper(GitConfig gitConfig, int maxRevisions, Deadline deadline) {
+        this(gitConfig, maxRevisions, deadline, DIFF_THREADS);
+    }
+
+    // more workers than the pool has threads still splits the diffs, they just take turns
+    JGitHelper(GitConfig gitConfig, int maxRevisions, Deadline deadline, int diffThreads) {
+        this.gitConfig = gitConfig;
+        this.maxRevisions = maxRevisions;
+        this.deadline = deadline;
+        this.diffThreads = diffThreads;
+    }
+
     public void cloneOrFetch(String url, String folder) throws Exception {
-        if (!new File(folder).exists() || !getGitDir(folder).exists()) {
-            cloneRepository(url, folder);
-        } else {
-            cleanRepository(folder);
+        Lock lock = locks.lockFor(folder);
+        if (!lockUnlessMaintained(lock, getGitDir(folder), "update " + folder)) {
+            return;
+        }
+        try {
+            boolean refsCached = AdvertisedRefsCache.getInstance().isEnabled();
+            ObjectId previousTip = null;
+            if (!new File(folder).exists() || !getGitDir(folder).exists()) {
+                initRepository(url, folder, false);
+            } else if (refsCached && isUpToDate(url, folder)) {
+                // the last poll already fetched, reset and cleaned this tip
+                return;
+            } else if (refsCached) {
+                cleanRepository(folder);
+            } else {
+                previousTip = getTip(folder);
+            }
             fetchRepository(url, folder);
-            gcRepository(folder);
-            resetRepository(folder, "origin/master");
+            RepositoryMaintenance.getInstance().scheduleIfNeeded(getGitDir(folder));
+            updateCommitGraph(getGitDir(folder));
+            if (previousTip != null && previousTip.equals(getTip(folder))) {
+                // nothing new was fetched, the last poll already reset and cleaned this tip
+                return;
+            }
+            long start = System.nanoTime();
+            resetRepository(folder, getRemoteBranch());
+            metrics.recordSince(PollerMetrics.RESET, start);
+            cleanRepository(folder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void cloneOrFetchBare(final String url, String folder) throws Exception {
+        final File mirror = mirrors.getMirrorDir(url, folder);
+        locks.singleFlight(mirror.getAbsolutePath() + "\n" + gitConfig.getBranch(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Lock lock = locks.lockFor(mirror.getPath());
+                if (!lockUnlessMaintained(lock, mirror, "update " + mirror)) {
+                    return null;
+                }
+                try {
+                    if (!mirror.exists() || !getGitDir(mirror.getPath()).exists()) {
+                        initRepository(url, mirror.getPath(), true);
+                    }
+                    if (!AdvertisedRefsCache.getInstance().isEnabled() || !isUpToDate(url, mirror.getPath())) {
+                        fetchRepository(url, mirror.getPath());
+                        RepositoryMaintenance.getInstance().scheduleIfNeeded(mirror);
+                    }
+                    updateCommitGraph(mirror);
+                } finally {
+                    lock.unlock();
+                }
+                return null;
+            }
+        }, deadline);
+        mirrors.register(url, mirror);
+
+        Lock lock = locks.lockFor(folder);
+        deadline.lock(lock, "update " + folder);
+        try {
+            updateView(folder, mirror);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void checkout(String url, String folder, String revision) throws Exception {
+        Lock lock = locks.lockFor(folder);
+        deadline.lock(lock, "check out " + folder);
+        try {
+            File localObjects = mirrors.findObjectsDir(url);
+            if (hasMissingAlternates(folder) || hasMissingBorrowedObjects(folder)) {
+                LOGGER.warn("objects borrowed by " + folder + " are gone, checking it out again");
+                repositories.invalidate(getGitDir(folder));
+                FileUtils.deleteDirectory(new File(folder));
+            }
+            if (!new File(folder).exists() || !getGitDir(folder).exists()) {
+                if (localObjects != null) {
+                    cloneFromLocalObjects(url, folder, localObjects);
+                } else if (gitConfig.isSingleBranchFetch()) {
+                    // no clone of every branch and tag, the fetch below takes the polled branch alone; history is not cut short
+                    initRepository(url, folder, false);
+                } else {
+                    cloneRepository(url, folder);
+                }
+            } else {
+                if (localObjects != null) {
+                    linkLocalObjects(folder, localObjects);
+                }
+                if (!gitConfig.isIncrementalCheckout()) {
+                    cleanRepository(folder);
+                }
+            }
+            if (!hasCommit(folder, revision)) {
+                fetchUntilPresent(folder, revision);
+                RepositoryMaintenance.getInstance().scheduleIfNeeded(getGitDir(folder));
+            }
+            long start = System.nanoTime();
+            if (gitConfig.isSparseCheckout()) {
+                checkoutSparsely(folder, revision);
+            } else if (gitConfig.isIncrementalCheckout()) {
+                checkoutIncrementally(folder, revision);
+            } else {
+                checkoutToRevision(folder, revision);
+            }
+            metrics.recordSince(PollerMetrics.RESET, start);
             cleanRepository(folder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // a gc holds its folder for as long as it takes, so a poll keeps what was fetched before rather than wait for it
+    private boolean lockUnlessMaintained(Lock lock, File gitDir, String operation) throws Exception {
+        while (!lock.tryLock(MAINTENANCE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (RepositoryMaintenance.getInstance().isRunning(gitDir)) {
+                LOGGER.info("maintenance of " + gitDir + " is running, skipping " + operation);
+                return false;
+            }
+            deadline.check(operation);
+        }
+        return true;
+    }
+
+    // a failed comparison only costs a fetch, unless it failed because the request ran out of time
+    public boolean isUpToDate(String url, String folder) throws TimeoutException {
+        Repository repository = null;
+        try {
+            ObjectId advertised = AdvertisedRefsCache.getInstance().get(url, deadline).get(Constants.R_HEADS + gitConfig.getBranch());
+            repository = repositories.acquire(getGitDir(folder));
+            return advertised != null && advertised.equals(getTip(repository));
+        } catch (TimeoutException e) {
+            throw e;
+        } catch (Exception e) {
+            deadline.check("comparing " + folder + " with " + url);
+            LOGGER.warn("could not compare " + folder + " with " + url + ", fetching it: " + e.getMessage());
+            return false;
+        } finally {
+            if (repository != null) {
+                repositories.release(repository);
+            }
         }
     }
 
@@ -34,175 +253,661 @@ public class JGitHelper {
         // delete if exists
         new File(folder).mkdirs();
 
-        CloneCommand cloneCommand = Git.cloneRepository().setURI(url).setDirectory(new File(folder));
+        CloneCommand cloneCommand = Git.cloneRepository().setURI(url).setDirectory(new File(folder)).setBranch(gitConfig.getBranch()).setNoCheckout(gitConfig.isSparseCheckout());
         if (url.startsWith("http") || url.startsWith("https")) {
             // set credentials
         }
-        cloneCommand.call();
+        deadline.check("clone");
+        long start = System.nanoTime();
+        try {
+            cloneCommand.setTimeout(deadline.getNetworkTimeoutSeconds()).setProgressMonitor(deadline.cancelling(metrics.newFetchMonitor())).call().close();
+        } finally {
+            metrics.recordSince(PollerMetrics.CLONE, start);
+            metrics.increment(PollerMetrics.BYTES_FETCHED, getPackBytes(getGitDir(folder)));
+        }
+        repositories.invalidate(getGitDir(folder));
+    }
+
+    private void cloneFromLocalObjects(String url, String folder, File localObjects) throws Exception {
+        initRepository(url, folder, false);
+        linkLocalObjects(folder, localObjects);
+        fetch(folder, localObjects.getParentFile().getAbsolutePath(), TagOpt.AUTO_FOLLOW, ALL_BRANCHES);
+    }
+
+    private void initRepository(String url, String folder, boolean bare) throws Exception {
+        new File(folder).mkdirs();
+        Git.init().setBare(bare).setDirectory(new File(folder)).call().close();
+        repositories.invalidate(getGitDir(folder));
+
+        Repository repository = null;
+        try {
+            repository = repositories.acquire(getGitDir(folder));
+            StoredConfig config = repository.getConfig();
+            RemoteConfig remote = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+            remote.addURI(new URIish(url));
+            remote.addFetchRefSpec(bare ? MIRROR_BRANCHES : ALL_BRANCHES);
+            remote.update(config);
+            config.save();
+        } finally {
+            if (repository != null) {
+                repositories.release(repository);
+            }
+        }
+    }
+
+    // the polled branch first; a revision that is not on it widens the fetch to every branch, then to the tags
+    private void fetchUntilPresent(String folder, String revision) throws Exception {
+        fetch(folder, Constants.DEFAULT_REMOTE_NAME, TagOpt.NO_TAGS, getBranchRefSpec(false));
+        if (hasCommit(folder, revision)) {
+            return;
+        }
+        fetch(folder, Constants.DEFAULT_REMOTE_NAME, TagOpt.NO_TAGS, ALL_BRANCHES);
+        if (hasCommit(folder, revision)) {
+            return;
+        }
+        fetch(folder, Constants.DEFAULT_REMOTE_NAME, TagOpt.FETCH_TAGS, ALL_BRANCHES);
+    }
+
+    private void fetch(String folder, String remote, TagOpt tagOpt, RefSpec refSpec) throws Exception {
+        Repository repository = null;
+        try {
+            repository = repositories.acquire(getGitDir(folder));
+            callFetch(repository, new Git(repository).fetch().setRemote(remote).setRefSpecs(refSpec).setTagOpt(tagOpt));
+        } finally {
+            if (repository != null) {
+                repositories.release(repository);
+            }
+        }
+    }
+
+    private void linkLocalObjects(String folder, File localObjects) throws IOException {
+        File alternates = getAlternatesFile(folder);
+        if (!alternates.exists()) {
+            FileUtils.writeStringToFile(alternates, localObjects.getAbsolutePath() + "\n", "UTF-8");
+            repositories.invalidate(getGitDir(folder));
+        }
+    }
+
+    // a view is a bare repository borrowing the mirror's objects and carrying only the polled branch
+    private void updateView(String folder, File mirror) throws Exception {
+        boolean exists = new File(folder).exists() && getGitDir(folder).exists();
+        if (exists && (!getAlternatesFile(folder).exists() || hasMissingAlternates(folder))) {
+            repositories.invalidate(getGitDir(folder));
+            FileUtils.deleteDirectory(new File(folder));
+            exists = false;
+        }
+        if (!exists) {
+            new File(folder).mkdirs();
+            Git.init().setBare(true).setDirectory(new File(folder)).call().close();
+            repositories.invalidate(getGitDir(folder));
+        }
+        linkLocalObjects(folder, new File(mirror, "objects"));
+
+        Repository source = null;
+        Repository view = null;
+        try {
+            source = repositories.acquire(mirror);
+            view = repositories.acquire(getGitDir(folder));
+            Map<String, Ref> sourceRefs = new HashMap<String, Ref>();
+            Ref branch = source.getRef(Constants.R_HEADS + gitConfig.getBranch());
+            if (branch != null) {
+                sourceRefs.put(branch.getName(), branch);
+            }
+            Map<String, Ref> viewRefs = view.getRefDatabase().getRefs(RefDatabase.ALL);
+            for (Ref ref : sourceRefs.values()) {
+                Ref current = viewRefs.get(ref.getName());
+                if (!ref.isSymbolic() && (current == null || !ref.getObjectId().equals(current.getObjectId()))) {
+                    RefUpdate update = view.updateRef(ref.getName());
+                    update.setNewObjectId(ref.getObjectId());
+                    update.forceUpdate();
+                }
+            }
+            for (Ref ref : viewRefs.values()) {
+                if (!ref.isSymbolic() && !sourceRefs.containsKey(ref.getName())) {
+                    RefUpdate update = view.updateRef(ref.getName());
+                    update.setForceUpdate(true);
+                    update.delete();
+                }
+            }
+        } finally {
+            if (view != null) {
+                repositories.release(view);
+            }
+            if (source != null) {
+                repositories.release(source);
+            }
+        }
+    }
+
+    private boolean hasMissingAlternates(String folder) throws IOException {
+        File alternates = getAlternatesFile(folder);
+        if (!alternates.exists()) {
+            return false;
+        }
+        for (String line : FileUtils.readLines(alternates, "UTF-8")) {
+            if (!line.trim().isEmpty() && !new File(line.trim()).isDirectory()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a mirror's gc drops commits a force push left behind, and a checkout still pointing at them can no longer be read or fetched into.
+    // a cached handle keeps reading packs the gc already deleted, so this looks with a fresh one
+    private boolean hasMissingBorrowedObjects(String folder) throws IOException {
+        if (!getAlternatesFile(folder).exists()) {
+            return false;
+        }
+        Repository repository = null;
+        RevWalk walk = null;
+        try {
+            repository = new FileRepositoryBuilder().setGitDir(getGitDir(folder)).readEnvironment().build();
+            walk = new RevWalk(repository);
+            List<ObjectId> tips = new ArrayList<ObjectId>();
+            ObjectId head = repository.resolve(Constants.HEAD);
+            if (head != null) {
+                tips.add(head);
+            }
+            for (Ref ref : repository.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+                if (!ref.isSymbolic() && ref.getObjectId() != null) {
+                    tips.add(ref.getObjectId());
+                }
+            }
+            for (ObjectId tip : tips) {
+                RevObject object = walk.peel(walk.parseAny(tip));
+                if (object instanceof RevCommit) {
+                    walk.parseBody(((RevCommit) object).getTree());
+                }
+            }
+            return false;
+        } catch (MissingObjectException e) {
+            return true;
+        } finally {
+            if (walk != null) {
+                walk.release();
+            }
+            if (repository != null) {
+                repository.close();
+            }
+        }
+    }
+
+    private File getAlternatesFile(String folder) {
+        return new File(getGitDir(folder), "objects/info/alternates");
+    }
+
+    private boolean hasCommit(String folder, String revision) throws Exception {
+        if (revision == null || !ObjectId.isId(revision)) {
+            return false;
+        }
+        Repository repository = null;
+        try {
+            repository = repositories.acquire(getGitDir(folder));
+            return repository.hasObject(ObjectId.fromString(revision));
+        } finally {
+            if (repository != null) {
+                repositories.release(repository);
+            }
+        }
     }
 
     private void cleanRepository(String folder) throws Exception {
+        long start = System.nanoTime();
         Repository repository = null;
         try {
-            repository = new FileRepositoryBuilder().setGitDir(getGitDir(folder)).readEnvironment().findGitDir().build();
+            repository = repositories.acquire(getGitDir(folder));
             Git git = new Git(repository);
-            CleanCommand clean = git.clean().setCleanDirectories(true);
+            CleanCommand clean = git.clean().setCleanDirectories(true).setIgnore(gitConfig.isPreserveIgnored());
             clean.call();
         } finally {
             if (repository != null) {
-                repository.close();
+                repositories.release(repository);
             }
+            metrics.recordSince(PollerMetrics.CLEAN, start);
         }
     }
 
     private void fetchRepository(String url, String folder) throws Exception {
         // check remote url - if ok
 
-        checkoutToRevision(folder, "master");
-
         Repository repository = null;
         try {
-            repository = new FileRepositoryBuilder().setGitDir(getGitDir(folder)).readEnvironment().findGitDir().build();
+            repository = repositories.acquire(getGitDir(folder));
             Git git = new Git(repository);
-            FetchCommand fetch = git.fetch();
+            FetchCommand fetch = git.fetch().setRefSpecs(getBranchRefSpec(repository.isBare())).setTagOpt(TagOpt.NO_TAGS);
             if (url.startsWith("http") || url.startsWith("https")) {
                 // if url is http/https - set credentials
             }
-            fetch.call();
+            callFetch(repository, fetch);
         } finally {
             if (repository != null) {
-                repository.close();
+                repositories.release(repository);
             }
         }
         // else delete folder & clone
     }
 
-    private void gcRepository(String folder) throws Exception {
-        Repository repository = null;
+    private void callFetch(Repository repository, FetchCommand fetch) throws Exception {
+        deadline.check("fetch");
+        long start = System.nanoTime();
+        long packBytes = getPackBytes(repository.getDirectory());
         try {
-            repository = new FileRepositoryBuilder().setGitDir(getGitDir(folder)).readEnvironment().findGitDir().build();
-            Git git = new Git(repository);
-            GarbageCollectCommand gc = git.gc();
-            gc.call();
+            fetch.setTimeout(deadline.getNetworkTimeoutSeconds()).setProgressMonitor(deadline.cancelling(metrics.newFetchMonitor())).call();
         } finally {
-            if (repository != null) {
-                repository.close();
+            metrics.recordSince(PollerMetrics.FETCH, start);
+            metrics.increment(PollerMetrics.BYTES_FETCHED, Math.max(0, getPackBytes(repository.getDirectory()) - packBytes));
+        }
+    }
+
+    private long getPackBytes(File gitDir) {
+        File[] packs = new File(gitDir, "objects/pack").listFiles();
+        long bytes = 0;
+        if (packs != null) {
+            for (File pack : packs) {
+                if (pack.getName().endsWith(".pack")) {
+                    bytes += pack.length();
+                }
             }
         }
+        return bytes;
     }
 
     private void resetRepository(String folder, String revision) throws Exception {
         Repository repository = null;
         try {
-            repository = new FileRepositoryBuilder().setGitDir(getGitDir(folder)).readEnvironment().findGitDir().build();
+            repository = repositories.acquire(getGitDir(folder));
             Git git = new Git(repository);
             ResetCommand reset = git.reset().setMode(ResetCommand.ResetType.HARD).setRef(revision);
             reset.call();
         } finally {
             if (repository != null) {
-                repository.close();
+                repositories.release(repository);
             }
         }
     }
 
     public Revision getLatestRevision(String folder) throws Exception {
         Repository repository = null;
+        RevWalk walk = null;
         try {
-            repository = new FileRepositoryBuilder().setGitDir(getGitDir(folder)).readEnvironment().findGitDir().build();
-            Git git = new Git(repository);
-            Iterable<RevCommit> log = git.log().call();
-            Iterator<RevCommit> iterator = log.iterator();
-            if (iterator.hasNext()) {
-                return getRevisionObj(repository, iterator.next());
+            repository = repositories.acquire(getGitDir(folder));
+            ObjectId tip = getTip(repository);
+            if (tip != null) {
+                long start = System.nanoTime();
+                walk = new RevWalk(repository);
+                RevCommit latest = getLatestCommit(walk, walk.parseCommit(tip));
+                metrics.recordSince(PollerMetrics.WALK, start);
+                if (latest != null) {
+                    return getRevisionObj(repository, latest);
+                }
             }
         } finally {
+            if (walk != null) {
+                walk.release();
+            }
             if (repository != null) {
-                repository.close();
+                repositories.release(repository);
             }
         }
         return null;
     }
 
     public List<Revision> getNewerRevisions(String folder, String previousRevision) throws Exception {
+        final List<Revision> revisionObjs = new ArrayList<Revision>();
+        walkNewerRevisions(folder, previousRevision, new RevisionHandler() {
+            @Override
+            public void handle(Revision revision) {
+                revisionObjs.add(revision);
+            }
+        });
+        return revisionObjs.isEmpty() ? null : revisionObjs;
+    }
+
+    public void walkNewerRevisions(String folder, String previousRevision, RevisionHandler handler) throws Exception {
         Repository repository = null;
+        RevWalk walk = null;
         try {
-            repository = new FileRepositoryBuilder().setGitDir(getGitDir(folder)).readEnvironment().findGitDir().build();
-            Git git = new Git(repository);
-            Iterable<RevCommit> log = git.log().call();
-            Iterator<RevCommit> iterator = log.iterator();
-            List<RevCommit> newCommits = new ArrayList<RevCommit>();
-            while (iterator.hasNext()) {
-                RevCommit commit = iterator.next();
-                if (commit.getName().equals(previousRevision)) {
-                    break;
+            repository = repositories.acquire(getGitDir(folder));
+            ObjectId tipId = getTip(repository);
+            if (tipId == null) {
+                return;
+            }
+            walk = new RevWalk(repository);
+            RevCommit tip = walk.parseCommit(tipId);
+            RevCommit previous = parseCommitIfPresent(walk, previousRevision);
+            if (previous == null) {
+                LOGGER.warn("previous revision " + previousRevision + " not found in " + folder + ". reporting latest revision only");
+                RevCommit latest = getLatestCommit(walk, tip);
+                if (latest != null) {
+                    handler.handle(getRevisionObj(repository, latest));
                 }
-                newCommits.add(commit);
+                return;
             }
 
-            if (newCommits.isEmpty()) {
-                return null;
+            long walkStart = System.nanoTime();
+            List<RevCommit> newCommits = new ArrayList<RevCommit>();
+            boolean reachable;
+            CommitGraph commitGraph = gitConfig.hasPathFilter() || !CommitGraph.isEnabled() ? null : CommitGraph.forRepository(getObjectStoreDir(repository));
+            List<ObjectId> indexedCommits = commitGraph == null ? null : commitGraph.commitsSince(tip, previous);
+            if (indexedCommits != null) {
+                reachable = commitGraph.isAncestor(previous, tip);
+                for (ObjectId commit : indexedCommits) {
+                    if (isOverLimit(newCommits, folder)) {
+                        reachable = true;
+                        break;
+                    }
+                    newCommits.add(walk.parseCommit(commit));
+                }
+            } else {
+                walk.setTreeFilter(getTreeFilter());
+                walk.markStart(tip);
+                walk.markUninteresting(previous);
+                // parents are rewritten in a filtered walk, so ancestry cannot be checked from them
+                reachable = tip.equals(previous) || gitConfig.hasPathFilter();
+                for (RevCommit commit : walk) {
+                    if (isOverLimit(newCommits, folder)) {
+                        reachable = true;
+                        break;
+                    }
+                    reachable = reachable || isParent(previous, commit);
+                    newCommits.add(commit);
+                }
             }
+            if (!reachable) {
+                LOGGER.warn("previous revision " + previousRevision + " is not an ancestor of " + tip.getName() + " in " + folder + ". history was probably rewritten");
+            }
+            metrics.recordSince(PollerMetrics.WALK, walkStart);
+            metrics.increment(PollerMetrics.COMMITS_WALKED, newCommits.size());
 
-            List<Revision> revisionObjs = new ArrayList<Revision>();
-            for (RevCommit newCommit : newCommits) {
-                Revision revisionObj = getRevisionObj(repository, newCommit);
-                revisionObjs.add(revisionObj);
+            int window = diffThreads * DIFF_WINDOW_PER_THREAD;
+            for (int start = 0; start < newCommits.size(); start += window) {
+                List<RevCommit> commits = newCommits.subList(start, Math.min(start + window, newCommits.size()));
+                for (Revision revision : getRevisionObjs(repository, commits)) {
+                    handler.handle(revision);
+                }
             }
-            return revisionObjs;
         } finally {
+            if (walk != null) {
+                walk.release();
+            }
             if (repository != null) {
-                repository.close();
+                repositories.release(repository);
+            }
+        }
+    }
+
+    private boolean isOverLimit(List<RevCommit> newCommits, String folder) {
+        if (newCommits.size() < maxRevisions) {
+            return false;
+        }
+        LOGGER.warn("more than " + maxRevisions + " new revisions in " + folder + ". reporting the latest " + maxRevisions + " only");
+        return true;
+    }
+
+    // a failed update only costs the fast path, polling falls back to walking commits
+    private void updateCommitGraph(File gitDir) {
+        if (!CommitGraph.isEnabled()) {
+            return;
+        }
+        Repository repository = null;
+        try {
+            repository = repositories.acquire(gitDir);
+            CommitGraph.forRepository(getObjectStoreDir(repository)).update(repository);
+        } catch (Exception e) {
+            LOGGER.warn("could not update commit graph of " + gitDir + ": ", e);
+        } finally {
+            if (repository != null) {
+                repositories.release(repository);
+            }
+        }
+    }
+
+    private RevCommit getLatestCommit(RevWalk walk, RevCommit tip) throws IOException {
+        if (!gitConfig.hasPathFilter()) {
+            return tip;
+        }
+        walk.setTreeFilter(getTreeFilter());
+        walk.markStart(tip);
+        return walk.next();
+    }
+
+    private TreeFilter getTreeFilter() {
+        return PathGlobFilter.forRevWalk(gitConfig.getIncludes(), gitConfig.getExcludes());
+    }
+
+    private RevCommit parseCommitIfPresent(RevWalk walk, String revision) throws IOException {
+        if (revision == null || !ObjectId.isId(revision)) {
+            return null;
+        }
+        try {
+            return walk.parseCommit(ObjectId.fromString(revision));
+        } catch (MissingObjectException e) {
+            return null;
+        } catch (IncorrectObjectTypeException e) {
+            return null;
+        }
+    }
+
+    private boolean isParent(RevCommit parent, RevCommit commit) {
+        for (RevCommit commitParent : commit.getParents()) {
+            if (commitParent.equals(parent)) {
+                return true;
             }
         }
+        return false;
     }
 
     public void checkoutToRevision(String folder, String revision) throws Exception {
         resetRepository(folder, revision);
     }
 
-    private Revision getRevisionObj(Repository repository, RevCommit commit) throws IOException {
-        String commitSHA = commit.getName();
-        int commitTime = commit.getCommitTime();
-        String comment = commit.getFullMessage().trim();
-        String user = commit.getAuthorIdent().getEmailAddress();
-        List<ModifiedFile> modifiedFiles = new ArrayList<ModifiedFile>();
-        if (commit.getParentCount() == 0) {
-            TreeWalk treeWalk = new TreeWalk(repository);
-            treeWalk.addTree(commit.getTree());
-            treeWalk.setRecursive(false);
-            while (treeWalk.next()) {
-                modifiedFiles.add(new ModifiedFile(treeWalk.getPathString(), "add"));
+    private void checkoutSparsely(String folder, String revision) throws Exception {
+        Repository repository = null;
+        RevWalk walk = null;
+        try {
+            repository = repositories.acquire(getGitDir(folder));
+            ObjectId target = repository.resolve(revision);
+            if (target == null) {
+                throw new RefNotFoundException("revision " + revision + " can not be resolved in " + folder);
+            }
+            walk = new RevWalk(repository);
+            new SparseCheckout(repository, gitConfig.getSparsePaths()).checkout(walk.parseCommit(target));
+        } finally {
+            if (walk != null) {
+                walk.release();
+            }
+            if (repository != null) {
+                repositories.release(repository);
+            }
+        }
+    }
+
+    // rewrites only the paths that differ between the checked out and the target tree, plus locally modified ones
+    private void checkoutIncrementally(String folder, String revision) throws Exception {
+        Repository repository = null;
+        RevWalk walk = null;
+        ObjectReader reader = null;
+        try {
+            repository = repositories.acquire(getGitDir(folder));
+            ObjectId head = repository.resolve(Constants.HEAD);
+            ObjectId target = repository.resolve(revision);
+            if (head == null || target == null) {
+                resetRepository(folder, revision);
+                return;
+            }
+            walk = new RevWalk(repository);
+            RevCommit current = walk.parseCommit(head);
+            RevCommit targetCommit = walk.parseCommit(target);
+
+            IndexDiff localChanges = new IndexDiff(repository, current.getTree(), new FileTreeIterator(repository));
+            localChanges.diff();
+            if (!localChanges.getAdded().isEmpty() || !localChanges.getChanged().isEmpty() || !localChanges.getRemoved().isEmpty() || !localChanges.getConflicting().isEmpty()) {
+                resetRepository(folder, revision);
+                return;
+            }
+
+            DirCacheCheckout checkout = new DirCacheCheckout(repository, current.getTree(), repository.lockDirCache(), targetCommit.getTree());
+            checkout.setFailOnConflict(false);
+            checkout.checkout();
+
+            DirCache dirCache = repository.readDirCache();
+            reader = repository.newObjectReader();
+            Set<String> dirtyPaths = new HashSet<String>(localChanges.getModified());
+            dirtyPaths.addAll(localChanges.getMissing());
+            for (String path : dirtyPaths) {
+                DirCacheEntry entry = dirCache.getEntry(path);
+                if (entry != null) {
+                    DirCacheCheckout.checkoutEntry(repository, entry, reader);
+                }
+            }
+
+            RefUpdate update = repository.updateRef(Constants.HEAD);
+            update.setNewObjectId(targetCommit);
+            update.forceUpdate();
+        } finally {
+            if (reader != null) {
+                reader.release();
+            }
+            if (walk != null) {
+                walk.release();
+            }
+            if (repository != null) {
+                repositories.release(repository);
+            }
+        }
+    }
+
+    private Revision getRevisionObj(Repository repository, RevCommit commit) throws Exception {
+        return getRevisionObjs(repository, Collections.singletonList(commit)).get(0);
+    }
+
+    private List<Revision> getRevisionObjs(final Repository repository, List<RevCommit> commits) throws Exception {
+        RevisionCache revisionCache = RevisionCache.forRepository(getObjectStoreDir(repository), gitConfig);
+        Revision[] revisions = new Revision[commits.size()];
+        List<Integer> misses = new ArrayList<Integer>();
+        for (int i = 0; i < commits.size(); i++) {
+            revisions[i] = revisionCache.get(commits.get(i));
+            if (revisions[i] == null) {
+                misses.add(i);
+            }
+        }
+
+        metrics.increment(PollerMetrics.REVISION_CACHE_HITS, commits.size() - misses.size());
+        metrics.increment(PollerMetrics.REVISION_CACHE_MISSES, misses.size());
+
+        long start = System.nanoTime();
+        int workers = Math.min(diffThreads, misses.size());
+        List<List<RevCommit>> chunks = new ArrayList<List<RevCommit>>();
+        for (int worker = 0; worker < workers; worker++) {
+            List<RevCommit> chunk = new ArrayList<RevCommit>();
+            for (int i = worker; i < misses.size(); i += workers) {
+                chunk.add(commits.get(misses.get(i)));
+            }
+            chunks.add(chunk);
+        }
+
+        List<List<Revision>> diffs = new ArrayList<List<Revision>>();
+        if (workers == 1) {
+            diffs.add(diff(repository, chunks.get(0)));
+        } else if (workers > 1) {
+            List<Future<List<Revision>>> futures = new ArrayList<Future<List<Revision>>>();
+            for (final List<RevCommit> chunk : chunks) {
+                futures.add(DIFF_EXECUTOR.submit(new Callable<List<Revision>>() {
+                    @Override
+                    public List<Revision> call() throws Exception {
+                        return diff(repository, chunk);
+                    }
+                }));
+            }
+            for (Future<List<Revision>> future : futures) {
+                diffs.add(getResult(future));
+            }
+        }
+
+        for (int worker = 0; worker < workers; worker++) {
+            List<Revision> diff = diffs.get(worker);
+            for (int i = 0; i < diff.size(); i++) {
+                int index = misses.get(worker + i * workers);
+                revisions[index] = diff.get(i);
+                revisionCache.put(commits.get(index), revisions[index]);
             }
-        } else {
-            RevWalk rw = new RevWalk(repository);
-            RevCommit parent = rw.parseCommit(commit.getParent(0).getId());
-            DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
-            diffFormatter.setRepository(repository);
-            diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
-            diffFormatter.setDetectRenames(true);
-            List<DiffEntry> diffEntries = diffFormatter.scan(parent.getTree(), commit.getTree());
-            for (DiffEntry diffEntry : diffEntries) {
-                modifiedFiles.add(new ModifiedFile(diffEntry.getNewPath(), getAction(diffEntry.getChangeType().name())));
+        }
+        if (workers > 0) {
+            metrics.recordSince(PollerMetrics.DIFF, start);
+        }
+        return Arrays.asList(revisions);
+    }
+
+    private List<Revision> diff(Repository repository, List<RevCommit> commits) throws IOException {
+        RevisionDiffer differ = new RevisionDiffer(repository, gitConfig);
+        try {
+            List<Revision> revisions = new ArrayList<Revision>();
+            for (RevCommit commit : commits) {
+                revisions.add(differ.diff(commit));
             }
+            return revisions;
+        } finally {
+            differ.release();
         }
+    }
 
-        return new Revision(commitSHA, commitTime, comment, user, modifiedFiles);
+    private <T> T getResult(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
     }
 
-    private String getAction(String gitAction) {
-        if (gitAction.equalsIgnoreCase("ADD") || gitAction.equalsIgnoreCase("RENAME")) {
-            return "added";
+    private ObjectId getTip(String folder) throws IOException {
+        Repository repository = repositories.acquire(getGitDir(folder));
+        try {
+            return getTip(repository);
+        } finally {
+            repositories.release(repository);
         }
-        if (gitAction.equals("MODIFY")) {
-            return "modified";
+    }
+
+    private ObjectId getTip(Repository repository) throws IOException {
+        ObjectId remoteBranch = repository.resolve(getRemoteBranch());
+        if (remoteBranch != null) {
+            return remoteBranch;
         }
-        if (gitAction.equals("DELETE")) {
-            return "deleted";
+        ObjectId branch = repository.resolve(Constants.R_HEADS + gitConfig.getBranch());
+        return branch != null ? branch : repository.resolve(Constants.HEAD);
+    }
+
+    private String getRemoteBranch() {
+        return Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + gitConfig.getBranch();
+    }
+
+    // only the polled branch, into refs/heads of a mirror and refs/remotes/origin of a working copy
+    private RefSpec getBranchRefSpec(boolean bare) {
+        String branch = Constants.R_HEADS + gitConfig.getBranch();
+        return new RefSpec("+" + branch + ":" + (bare ? branch : getRemoteBranch()));
+    }
+
+    // views and checkouts share the cache of the repository whose objects they borrow
+    private File getObjectStoreDir(Repository repository) throws IOException {
+        File alternates = new File(repository.getDirectory(), "objects/info/alternates");
+        if (alternates.exists()) {
+            for (String line : FileUtils.readLines(alternates, "UTF-8")) {
+                if (!line.trim().isEmpty()) {
+                    return new File(line.trim()).getParentFile();
+                }
+            }
         }
-        return "unknown";
+        return repository.getDirectory();
     }
 
     private File getGitDir(String folder) {
-        return new File(folder, ".git");
+        File dotGit = new File(folder, Constants.DOT_GIT);
+        if (!dotGit.exists() && RepositoryCache.FileKey.isGitRepository(new File(folder), FS.DETECTED)) {
+            return new File(folder);
+        }
+        return dotGit;
     }
 }
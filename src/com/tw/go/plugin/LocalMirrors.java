@@ -0,0 +1,69 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LocalMirrors {
+    private static final String MIRRORS_DIR = "git-poller-mirrors";
+
+    private static final LocalMirrors INSTANCE = new LocalMirrors(System.getProperty("git.poller.mirror.dir"));
+
+    private final String mirrorRoot;
+    private final Map<String, File> gitDirs = new ConcurrentHashMap<String, File>();
+
+    LocalMirrors(String mirrorRoot) {
+        this.mirrorRoot = mirrorRoot;
+    }
+
+    public static LocalMirrors getInstance() {
+        return INSTANCE;
+    }
+
+    // one mirror per repository, whatever the spelling of its url, next to the flyweight folders unless configured
+    public File getMirrorDir(String url, String flyweightFolder) {
+        File root = mirrorRoot != null ? new File(mirrorRoot) : new File(new File(flyweightFolder).getAbsoluteFile().getParentFile(), MIRRORS_DIR);
+        return new File(root, getMirrorName(url));
+    }
+
+    public void register(String url, File gitDir) {
+        gitDirs.put(normalize(url), gitDir.getAbsoluteFile());
+    }
+
+    // a configured mirror folder is found from the url alone, so agents and restarted servers find it without having polled first
+    public File findObjectsDir(String url) {
+        String key = normalize(url);
+        File gitDir = gitDirs.get(key);
+        if (gitDir == null && mirrorRoot != null) {
+            gitDir = new File(mirrorRoot, getMirrorName(url)).getAbsoluteFile();
+        }
+        if (gitDir == null) {
+            return null;
+        }
+        File objectsDir = new File(gitDir, "objects");
+        if (!objectsDir.isDirectory()) {
+            gitDirs.remove(key);
+            return null;
+        }
+        return objectsDir;
+    }
+
+    private static String getMirrorName(String url) {
+        byte[] digest = Constants.newMessageDigest().digest(Constants.encode(normalize(url)));
+        return ObjectId.fromRaw(digest).name();
+    }
+
+    static String normalize(String url) {
+        String normalized = url.trim();
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        if (normalized.endsWith(Constants.DOT_GIT_EXT)) {
+            normalized = normalized.substring(0, normalized.length() - Constants.DOT_GIT_EXT.length());
+        }
+        return normalized;
+    }
+}
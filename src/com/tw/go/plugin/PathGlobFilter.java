@@ -0,0 +1,124 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class PathGlobFilter extends TreeFilter {
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+
+    public PathGlobFilter(List<String> includes, List<String> excludes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    // commits touching at least one matching path, for RevWalk.setTreeFilter
+    public static TreeFilter forRevWalk(List<String> includes, List<String> excludes) {
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return TreeFilter.ALL;
+        }
+        return AndTreeFilter.create(new PathGlobFilter(includes, excludes), TreeFilter.ANY_DIFF);
+    }
+
+    @Override
+    public boolean include(TreeWalk walker) {
+        String path = walker.getPathString();
+        if (matchesAny(excludes, path)) {
+            return false;
+        }
+        if (walker.isSubtree()) {
+            return includes.isEmpty() || mayContainMatch(path);
+        }
+        return includes.isEmpty() || matchesAny(includes, path);
+    }
+
+    @Override
+    public boolean shouldBeRecursive() {
+        return true;
+    }
+
+    @Override
+    public TreeFilter clone() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "PATH_GLOB(includes=" + includes + ", excludes=" + excludes + ")";
+    }
+
+    private boolean mayContainMatch(String directory) {
+        String prefix = directory + "/";
+        for (Glob include : includes) {
+            if (include.literalPrefix.startsWith(prefix) || prefix.startsWith(include.literalPrefix) || include.matches(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(List<Glob> globs, String path) {
+        for (Glob glob : globs) {
+            if (glob.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Glob> compile(List<String> patterns) {
+        List<Glob> globs = new ArrayList<Glob>();
+        for (String pattern : patterns) {
+            globs.add(new Glob(pattern));
+        }
+        return globs;
+    }
+
+    // ant style: ** crosses directories, also none at all, * and ? do not, and a match on a directory covers everything below it
+    private static class Glob {
+        private final String pattern;
+        private final String literalPrefix;
+        private final Pattern regex;
+
+        private Glob(String pattern) {
+            this.pattern = pattern;
+            StringBuilder regex = new StringBuilder();
+            int literalEnd = -1;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    literalEnd = literalEnd < 0 ? i : literalEnd;
+                }
+                if (pattern.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else if (c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            this.literalPrefix = literalEnd < 0 ? pattern : pattern.substring(0, literalEnd);
+            this.regex = Pattern.compile(regex.append("(/.*)?").toString());
+        }
+
+        private boolean matches(String path) {
+            return regex.matcher(path).matches();
+        }
+
+        @Override
+        public String toString() {
+            return pattern;
+        }
+    }
+}
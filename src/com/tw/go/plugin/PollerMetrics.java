@@ -0,0 +1,251 @@
+package com.tw.go.plugin;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.URIish;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PollerMetrics implements PollerMetricsMBean {
+    private static Logger LOGGER = Logger.getLoggerFor(PollerMetrics.class);
+
+    public static final String OBJECT_NAME = "com.tw.go.plugin:type=GitPollerMetrics";
+
+    public static final String CLONE = "clone";
+    public static final String FETCH = "fetch";
+    public static final String GC = "gc";
+    public static final String RESET = "reset";
+    public static final String CLEAN = "clean";
+    public static final String WALK = "walk";
+    public static final String DIFF = "diff";
+    public static final String RENDER = "render";
+
+    public static final String BYTES_FETCHED = "bytes.fetched";
+    public static final String OBJECTS_RECEIVED = "objects.received";
+    public static final String COMMITS_WALKED = "commits.walked";
+    public static final String REVISION_CACHE_HITS = "revision.cache.hits";
+    public static final String REVISION_CACHE_MISSES = "revision.cache.misses";
+
+    private static final long[] BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000, Long.MAX_VALUE};
+
+    private static final PollerMetrics INSTANCE = new PollerMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            LOGGER.warn("could not register " + OBJECT_NAME + ": ", e);
+        }
+        long dumpInterval = Long.getLong("git.poller.metrics.dump.seconds", 300L);
+        if (dumpInterval > 0) {
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("git-poller-metrics", Thread.MIN_PRIORITY));
+            dumper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    LOGGER.info("metrics:\n" + INSTANCE.getSnapshot());
+                }
+            }, dumpInterval, dumpInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, Histogram> urlTimers = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Date> maintenanceRuns = new ConcurrentHashMap<String, Date>();
+
+    PollerMetrics() {
+    }
+
+    public static PollerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public void recordSince(String timer, long startNanos) {
+        record(timer, System.nanoTime() - startNanos);
+    }
+
+    public void record(String timer, long nanos) {
+        histogram(timers, timer).record(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    // per material latency, keyed without credentials so that secrets never reach logs or jmx
+    public void recordRequest(String requestName, String url, long startNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        histogram(timers, "request." + requestName).record(millis);
+        if (url != null) {
+            histogram(urlTimers, requestName + " " + withoutCredentials(url)).record(millis);
+        }
+        StorageConfig.getInstance().sample();
+    }
+
+    public void increment(String counter, long delta) {
+        AtomicLong value = counters.get(counter);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = counters.putIfAbsent(counter, created);
+            value = value == null ? created : value;
+        }
+        value.addAndGet(delta);
+    }
+
+    // last gc of each mirror, so one that is never maintained stands out
+    public void recordMaintenance(File gitDir, Date lastRun) {
+        if (lastRun != null) {
+            maintenanceRuns.put(gitDir.getAbsolutePath(), lastRun);
+        }
+    }
+
+    public ProgressMonitor newFetchMonitor() {
+        return new ReceivedObjectsMonitor();
+    }
+
+    @Override
+    public long getCounter(String name) {
+        AtomicLong value = counters.get(name);
+        return value == null ? 0 : value.get();
+    }
+
+    @Override
+    public double getRevisionCacheHitRate() {
+        long hits = getCounter(REVISION_CACHE_HITS);
+        long total = hits + getCounter(REVISION_CACHE_MISSES);
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public double getPackCacheFullRate() {
+        return StorageConfig.getInstance().getFullRate();
+    }
+
+    @Override
+    public Map<String, Date> getLastMaintenanceRuns() {
+        return new TreeMap<String, Date>(maintenanceRuns);
+    }
+
+    @Override
+    public String getSnapshot() {
+        StringBuilder snapshot = new StringBuilder();
+        for (Map.Entry<String, Histogram> timer : new TreeMap<String, Histogram>(timers).entrySet()) {
+            snapshot.append(timer.getKey()).append(' ').append(timer.getValue()).append('\n');
+        }
+        for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            snapshot.append(counter.getKey()).append(" ").append(counter.getValue().get()).append('\n');
+        }
+        snapshot.append("revision.cache.hit.rate ").append(String.format("%.3f", getRevisionCacheHitRate())).append('\n');
+        snapshot.append(StorageConfig.getInstance().getSnapshot());
+        for (Map.Entry<String, Histogram> timer : new TreeMap<String, Histogram>(urlTimers).entrySet()) {
+            snapshot.append("url ").append(timer.getKey()).append(' ').append(timer.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Date> maintenanceRun : getLastMaintenanceRuns().entrySet()) {
+            snapshot.append("maintenance ").append(maintenanceRun.getKey()).append(" last run ").append(maintenanceRun.getValue()).append('\n');
+        }
+        return snapshot.toString();
+    }
+
+    @Override
+    public void reset() {
+        timers.clear();
+        urlTimers.clear();
+        counters.clear();
+    }
+
+    private Histogram histogram(ConcurrentMap<String, Histogram> histograms, String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            histogram = histogram == null ? created : histogram;
+        }
+        return histogram;
+    }
+
+    private static String withoutCredentials(String url) {
+        try {
+            return new URIish(url).setUser(null).setPass(null).toString();
+        } catch (Exception e) {
+            return url;
+        }
+    }
+
+    static class Histogram {
+        private final long[] buckets = new long[BUCKETS.length];
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+
+        synchronized void record(long millis) {
+            int bucket = 0;
+            while (millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        // upper bound of the bucket holding the percentile, capped at the largest value seen
+        synchronized long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(BUCKETS[i], maxMillis);
+                }
+            }
+            return maxMillis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "count=" + count + " mean=" + (count == 0 ? 0 : totalMillis / count) + "ms p50=" + getPercentile(0.5) + "ms p95="
+                    + getPercentile(0.95) + "ms p99=" + getPercentile(0.99) + "ms max=" + maxMillis + "ms";
+        }
+    }
+
+    private class ReceivedObjectsMonitor implements ProgressMonitor {
+        private boolean receiving;
+
+        @Override
+        public void start(int totalTasks) {
+        }
+
+        @Override
+        public void beginTask(String title, int totalWork) {
+            receiving = title != null && title.startsWith("Receiving objects");
+        }
+
+        @Override
+        public void update(int completed) {
+            if (receiving) {
+                increment(OBJECTS_RECEIVED, completed);
+            }
+        }
+
+        @Override
+        public void endTask() {
+            receiving = false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+}
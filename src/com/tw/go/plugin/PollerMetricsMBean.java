@@ -0,0 +1,18 @@
+package com.tw.go.plugin;
+
+import java.util.Date;
+import java.util.Map;
+
+public interface PollerMetricsMBean {
+	String getSnapshot();
+
+	long getCounter(String name);
+
+	double getRevisionCacheHitRate();
+
+	double getPackCacheFullRate();
+
+	Map<String, Date> getLastMaintenanceRuns();
+
+	void reset();
+}
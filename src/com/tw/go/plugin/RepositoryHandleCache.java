@@ -0,0 +1,128 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class RepositoryHandleCache {
+    private static final RepositoryHandleCache INSTANCE = new RepositoryHandleCache(
+            Integer.getInteger("git.poller.repository.cache.size", 64),
+            Long.getLong("git.poller.repository.cache.idle.seconds", 300L) * 1000);
+
+    private final int maxOpenHandles;
+    private final long idleTimeout;
+    private final Map<String, Handle> handles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+    private final Map<Repository, Handle> handlesByRepository = new IdentityHashMap<Repository, Handle>();
+
+    RepositoryHandleCache(int maxOpenHandles, long idleTimeout) {
+        this.maxOpenHandles = maxOpenHandles;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public static RepositoryHandleCache getInstance() {
+        return INSTANCE;
+    }
+
+    static {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("git-poller-repository-cache"));
+        long period = Math.max(INSTANCE.idleTimeout / 2, 1000);
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                INSTANCE.evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized Repository acquire(File gitDir) throws IOException {
+        String key = gitDir.getCanonicalPath();
+        Handle handle = handles.get(key);
+        if (handle == null) {
+            handle = new Handle(new FileRepositoryBuilder().setGitDir(gitDir).readEnvironment().build());
+            handles.put(key, handle);
+            handlesByRepository.put(handle.repository, handle);
+        }
+        handle.references++;
+        evictOverCapacity();
+        return handle.repository;
+    }
+
+    public synchronized void release(Repository repository) {
+        Handle handle = handlesByRepository.get(repository);
+        if (handle == null) {
+            return;
+        }
+        handle.references--;
+        handle.lastUsed = System.currentTimeMillis();
+        if (handle.evicted && handle.references == 0) {
+            close(handle);
+        }
+        evictOverCapacity();
+    }
+
+    public synchronized void invalidate(File gitDir) throws IOException {
+        Handle handle = handles.remove(gitDir.getCanonicalPath());
+        if (handle != null) {
+            evict(handle);
+        }
+    }
+
+    public synchronized int size() {
+        return handles.size();
+    }
+
+    synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Handle> iterator = handles.values().iterator();
+        while (iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.references == 0 && now - handle.lastUsed >= idleTimeout) {
+                iterator.remove();
+                evict(handle);
+            }
+        }
+    }
+
+    private void evictOverCapacity() {
+        Iterator<Handle> iterator = handles.values().iterator();
+        while (handles.size() > maxOpenHandles && iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.references == 0) {
+                iterator.remove();
+                evict(handle);
+            }
+        }
+    }
+
+    private void evict(Handle handle) {
+        handle.evicted = true;
+        if (handle.references == 0) {
+            close(handle);
+        }
+    }
+
+    private void close(Handle handle) {
+        handlesByRepository.remove(handle.repository);
+        handle.repository.close();
+    }
+
+    private static class Handle {
+        private final Repository repository;
+        private int references;
+        private long lastUsed = System.currentTimeMillis();
+        private boolean evicted;
+
+        private Handle(Repository repository) {
+            this.repository = repository;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.tw.go.plugin;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+public class RepositoryMaintenance {
+    private static Logger LOGGER = Logger.getLoggerFor(RepositoryMaintenance.class);
+
+    private static final String MARKER_FILE = "git-poller-maintenance";
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final RepositoryMaintenance INSTANCE = new RepositoryMaintenance(
+            Integer.getInteger("git.poller.gc.loose.objects", 6700),
+            Integer.getInteger("git.poller.gc.pack.files", 50),
+            Long.getLong("git.poller.gc.interval.hours", 24L) * HOUR);
+
+    private final int looseObjectsThreshold;
+    private final int packFilesThreshold;
+    private final long repackInterval;
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> running = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("git-poller-maintenance", Thread.MIN_PRIORITY));
+
+    RepositoryMaintenance(int looseObjectsThreshold, int packFilesThreshold, long repackInterval) {
+        this.looseObjectsThreshold = looseObjectsThreshold;
+        this.packFilesThreshold = packFilesThreshold;
+        this.repackInterval = repackInterval;
+    }
+
+    public static RepositoryMaintenance getInstance() {
+        return INSTANCE;
+    }
+
+    public void scheduleIfNeeded(final File gitDir) {
+        PollerMetrics.getInstance().recordMaintenance(gitDir, getLastRun(gitDir));
+        if (!isNeeded(gitDir) || !pending.add(gitDir.getAbsolutePath())) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain(gitDir);
+                } catch (Throwable t) {
+                    LOGGER.warn("maintenance failed for " + gitDir + ": ", t);
+                } finally {
+                    pending.remove(gitDir.getAbsolutePath());
+                }
+            }
+        });
+    }
+
+    public boolean isNeeded(File gitDir) {
+        int looseObjects = countLooseObjects(gitDir);
+        int packFiles = countPackFiles(gitDir);
+        if (looseObjects >= looseObjectsThreshold || packFiles >= packFilesThreshold) {
+            return true;
+        }
+        boolean somethingToRepack = looseObjects > 0 || packFiles > 1;
+        return somethingToRepack && System.currentTimeMillis() - getLastRepackTime(gitDir) >= repackInterval;
+    }
+
+    public Date getLastRun(File gitDir) {
+        File marker = new File(gitDir, MARKER_FILE);
+        return marker.exists() ? new Date(marker.lastModified()) : null;
+    }
+
+    // whether a gc holds the folder right now, polls answer from what is already fetched instead of waiting for it
+    public boolean isRunning(File gitDir) {
+        return running.contains(gitDir.getAbsolutePath());
+    }
+
+    void maintain(File gitDir) throws Exception {
+        maintain(gitDir, NullProgressMonitor.INSTANCE);
+    }
+
+    void maintain(File gitDir, ProgressMonitor monitor) throws Exception {
+        Date lastRun = getLastRun(gitDir);
+        long start = System.currentTimeMillis();
+        Lock lock = FolderLocks.getInstance().lockForGitDir(gitDir);
+        Repository repository = null;
+        lock.lock();
+        running.add(gitDir.getAbsolutePath());
+        try {
+            repository = RepositoryHandleCache.getInstance().acquire(gitDir);
+            new Git(repository).gc().setProgressMonitor(monitor).call();
+            // repositories borrowing these objects open it through jgit's own cache, which would keep the packs the gc deleted
+            RepositoryCache.close(repository);
+        } finally {
+            if (repository != null) {
+                RepositoryHandleCache.getInstance().release(repository);
+            }
+            running.remove(gitDir.getAbsolutePath());
+            lock.unlock();
+        }
+        PollerMetrics.getInstance().record(PollerMetrics.GC, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - start));
+        touch(new File(gitDir, MARKER_FILE));
+        PollerMetrics.getInstance().recordMaintenance(gitDir, getLastRun(gitDir));
+        LOGGER.info("maintenance of " + gitDir + " took " + (System.currentTimeMillis() - start) + "ms. previous run: " + lastRun);
+    }
+
+    private long getLastRepackTime(File gitDir) {
+        Date lastRun = getLastRun(gitDir);
+        if (lastRun != null) {
+            return lastRun.getTime();
+        }
+        long newestPack = 0;
+        for (File pack : listPackFiles(gitDir)) {
+            newestPack = Math.max(newestPack, pack.lastModified());
+        }
+        return newestPack;
+    }
+
+    private int countLooseObjects(File gitDir) {
+        File[] fanout = new File(gitDir, "objects").listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().matches("[0-9a-f]{2}");
+            }
+        });
+        int count = 0;
+        if (fanout != null) {
+            for (File directory : fanout) {
+                String[] objects = directory.list();
+                count += objects == null ? 0 : objects.length;
+                if (count >= looseObjectsThreshold) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    private int countPackFiles(File gitDir) {
+        return listPackFiles(gitDir).length;
+    }
+
+    private File[] listPackFiles(File gitDir) {
+        File[] packs = new File(gitDir, "objects/pack").listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(".pack");
+            }
+        });
+        return packs == null ? new File[0] : packs;
+    }
+
+    private void touch(File file) throws IOException {
+        if (!file.createNewFile()) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+    }
+}
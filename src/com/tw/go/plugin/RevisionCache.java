@@ -0,0 +1,294 @@
+package com.tw.go.plugin;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RevisionCache {
+    private static Logger LOGGER = Logger.getLoggerFor(RevisionCache.class);
+
+    private static final String CACHE_FILE = "git-poller-revisions";
+    private static final int MAGIC = 0x47505243;
+    private static final int VERSION = 1;
+    private static final String[] ACTIONS = {"added", "modified", "deleted", "unknown", "add"};
+    private static final int OTHER_ACTION = 0xff;
+
+    private static final int MAX_ENTRIES = Integer.getInteger("git.poller.revision.cache.entries", 10000);
+    private static final long MAX_RESIDENT_BYTES = Long.getLong("git.poller.revision.cache.memory.mb", 64L) * 1024 * 1024;
+    // access ordered, so the caches of repositories polled least recently are unloaded first
+    private static final Map<String, RevisionCache> CACHES = new LinkedHashMap<String, RevisionCache>(16, 0.75f, true);
+
+    private final File file;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<ObjectId, Revision> revisions = new LinkedHashMap<ObjectId, Revision>(16, 0.75f, true);
+    private volatile long residentBytes;
+    private boolean loaded;
+    private int recordsOnDisk;
+
+    RevisionCache(File file, int maxEntries) {
+        this(file, maxEntries, MAX_RESIDENT_BYTES);
+    }
+
+    RevisionCache(File file, int maxEntries, long maxBytes) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public static RevisionCache forRepository(File gitDir, GitConfig gitConfig) throws IOException {
+        String fileName = CACHE_FILE + "-r" + gitConfig.getRenameDetectionLimit() + "-m" + gitConfig.getMaxModifiedFiles();
+        String key = new File(gitDir.getCanonicalFile(), fileName).getPath();
+        RevisionCache cache;
+        synchronized (CACHES) {
+            cache = CACHES.get(key);
+            if (cache == null) {
+                cache = new RevisionCache(new File(key), MAX_ENTRIES);
+                CACHES.put(key, cache);
+            }
+        }
+        unloadLeastRecentlyUsed(MAX_RESIDENT_BYTES, cache);
+        return cache;
+    }
+
+    // all repositories share one memory budget, an unloaded cache reads its file again when next polled
+    static void unloadLeastRecentlyUsed(long budget, RevisionCache keep) {
+        synchronized (CACHES) {
+            long total = 0;
+            for (RevisionCache cache : CACHES.values()) {
+                total += cache.residentBytes;
+            }
+            for (Iterator<RevisionCache> iterator = CACHES.values().iterator(); total > budget && iterator.hasNext(); ) {
+                RevisionCache cache = iterator.next();
+                if (cache != keep) {
+                    total -= cache.unload();
+                }
+            }
+        }
+    }
+
+    public synchronized Revision get(AnyObjectId commit) {
+        load();
+        return revisions.get(commit);
+    }
+
+    public synchronized void put(AnyObjectId commit, Revision revision) {
+        load();
+        remember(commit.copy(), revision);
+        try {
+            if (recordsOnDisk >= 2 * maxEntries) {
+                compact();
+            } else {
+                append(commit, revision);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("could not write revision cache " + file + ": ", e);
+        }
+    }
+
+    public synchronized int size() {
+        load();
+        return revisions.size();
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    private synchronized long unload() {
+        long unloaded = residentBytes;
+        revisions.clear();
+        residentBytes = 0;
+        recordsOnDisk = 0;
+        loaded = false;
+        return unloaded;
+    }
+
+    private void remember(ObjectId commit, Revision revision) {
+        Revision replaced = revisions.put(commit, revision);
+        long bytes = residentBytes + estimateBytes(revision) - (replaced == null ? 0 : estimateBytes(replaced));
+        for (Iterator<Revision> eldest = revisions.values().iterator(); (revisions.size() > maxEntries || bytes > maxBytes) && revisions.size() > 1; ) {
+            bytes -= estimateBytes(eldest.next());
+            eldest.remove();
+        }
+        residentBytes = bytes;
+    }
+
+    // java strings take two bytes a character, the rest is object headers and references
+    private static long estimateBytes(Revision revision) {
+        long bytes = 128 + 2 * (length(revision.getComment()) + length(revision.getUser()));
+        for (ModifiedFile modifiedFile : revision.getModifiedFiles()) {
+            bytes += 64 + 2 * length(modifiedFile.getFileName());
+        }
+        return bytes;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        long validLength = 0;
+        CountingInputStream bytes = null;
+        try {
+            // streamed, a file can hold twice the entries that stay in memory
+            bytes = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            DataInputStream in = new DataInputStream(bytes);
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                validLength = bytes.getByteCount();
+                while (true) {
+                    byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+                    if (in.read(id, 0, 1) < 0) {
+                        break;
+                    }
+                    in.readFully(id, 1, id.length - 1);
+                    ObjectId commit = ObjectId.fromRaw(id);
+                    remember(commit, readRevision(commit.getName(), in));
+                    recordsOnDisk++;
+                    validLength = bytes.getByteCount();
+                }
+            }
+        } catch (EOFException e) {
+            // a record cut short by a crash, drop it
+        } catch (IOException e) {
+            LOGGER.warn("could not read revision cache " + file + ": ", e);
+        } finally {
+            IOUtils.closeQuietly(bytes);
+        }
+        truncate(validLength);
+    }
+
+    private void append(AnyObjectId commit, Revision revision) throws IOException {
+        boolean newFile = !file.exists() || file.length() == 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        try {
+            if (newFile) {
+                writeHeader(out);
+            }
+            writeRecord(out, commit, revision);
+            recordsOnDisk++;
+        } finally {
+            out.close();
+        }
+    }
+
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            writeHeader(out);
+            for (Map.Entry<ObjectId, Revision> entry : revisions.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("could not replace " + file);
+            }
+        }
+        recordsOnDisk = revisions.size();
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private void writeRecord(DataOutputStream out, AnyObjectId commit, Revision revision) throws IOException {
+        byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+        commit.copyRawTo(id, 0);
+        out.write(id);
+        out.writeLong(revision.getTimestamp().getTime());
+        writeString(out, revision.getComment());
+        writeString(out, revision.getUser());
+        out.writeInt(revision.getModifiedFiles().size());
+        for (ModifiedFile modifiedFile : revision.getModifiedFiles()) {
+            int action = actionCode(modifiedFile.getAction());
+            out.writeByte(action);
+            if (action == OTHER_ACTION) {
+                writeString(out, modifiedFile.getAction());
+            }
+            writeString(out, modifiedFile.getFileName());
+        }
+    }
+
+    private Revision readRevision(String sha, DataInputStream in) throws IOException {
+        long timestamp = in.readLong();
+        String comment = readString(in);
+        String user = readString(in);
+        int fileCount = in.readInt();
+        List<ModifiedFile> modifiedFiles = new ArrayList<ModifiedFile>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            int action = in.readUnsignedByte();
+            if (action != OTHER_ACTION && action >= ACTIONS.length) {
+                throw new IOException("unknown action " + action);
+            }
+            String actionName = action == OTHER_ACTION ? readString(in) : ACTIONS[action];
+            modifiedFiles.add(new ModifiedFile(readString(in), actionName));
+        }
+        return new Revision(sha, (int) timestamp, comment, user, modifiedFiles);
+    }
+
+    private int actionCode(String action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return OTHER_ACTION;
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private void truncate(long validLength) {
+        if (file.exists() && file.length() > validLength) {
+            RandomAccessFile randomAccessFile = null;
+            try {
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                randomAccessFile.setLength(validLength);
+            } catch (IOException e) {
+                file.delete();
+            } finally {
+                IOUtils.closeQuietly(randomAccessFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RevisionDiffer {
+    private final ObjectReader reader;
+    private final RevWalk revWalk;
+    private final DiffFormatter diffFormatter;
+    private final RenameDetector renameDetector;
+    private final int renameDetectionLimit;
+    private final int maxModifiedFiles;
+
+    public RevisionDiffer(Repository repository, GitConfig gitConfig) {
+        reader = repository.newObjectReader();
+        revWalk = new RevWalk(reader);
+        diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
+        diffFormatter.setRepository(repository);
+        diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
+        diffFormatter.setDetectRenames(false);
+        renameDetector = new RenameDetector(repository);
+        renameDetectionLimit = gitConfig.getRenameDetectionLimit();
+        maxModifiedFiles = gitConfig.getMaxModifiedFiles();
+    }
+
+    public Revision diff(RevCommit walkedCommit) throws IOException {
+        // parents of a commit from a filtered walk are rewritten, so read the real ones
+        RevCommit commit = revWalk.parseCommit(walkedCommit.getId());
+        String commitSHA = commit.getName();
+        int commitTime = commit.getCommitTime();
+        String comment = commit.getFullMessage().trim();
+        String user = commit.getAuthorIdent().getEmailAddress();
+        List<ModifiedFile> modifiedFiles = new ArrayList<ModifiedFile>();
+        int omittedFiles = 0;
+        if (commit.getParentCount() == 0) {
+            TreeWalk treeWalk = new TreeWalk(reader);
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(false);
+            while (treeWalk.next()) {
+                if (isCapped(modifiedFiles)) {
+                    omittedFiles++;
+                } else {
+                    modifiedFiles.add(new ModifiedFile(treeWalk.getPathString(), "add"));
+                }
+            }
+            treeWalk.release();
+        } else {
+            RevCommit parent = revWalk.parseCommit(commit.getParent(0).getId());
+            List<DiffEntry> diffEntries = diffFormatter.scan(parent.getTree(), commit.getTree());
+            if (diffEntries.size() <= renameDetectionLimit) {
+                renameDetector.reset();
+                renameDetector.addAll(diffEntries);
+                diffEntries = renameDetector.compute(reader, NullProgressMonitor.INSTANCE);
+            }
+            for (DiffEntry diffEntry : diffEntries) {
+                if (isCapped(modifiedFiles)) {
+                    omittedFiles++;
+                } else {
+                    modifiedFiles.add(new ModifiedFile(diffEntry.getNewPath(), getAction(diffEntry.getChangeType().name())));
+                }
+            }
+        }
+        if (omittedFiles > 0) {
+            modifiedFiles.add(new ModifiedFile("[" + omittedFiles + " more files not listed]", "unknown"));
+        }
+
+        return new Revision(commitSHA, commitTime, comment, user, modifiedFiles);
+    }
+
+    private boolean isCapped(List<ModifiedFile> modifiedFiles) {
+        return maxModifiedFiles > 0 && modifiedFiles.size() >= maxModifiedFiles;
+    }
+
+    public void release() {
+        diffFormatter.release();
+        revWalk.release();
+        reader.release();
+    }
+
+    private String getAction(String gitAction) {
+        if (gitAction.equalsIgnoreCase("ADD") || gitAction.equalsIgnoreCase("RENAME")) {
+            return "added";
+        }
+        if (gitAction.equals("MODIFY")) {
+            return "modified";
+        }
+        if (gitAction.equals("DELETE")) {
+            return "deleted";
+        }
+        return "unknown";
+    }
+}
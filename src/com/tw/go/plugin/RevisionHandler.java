@@ -0,0 +1,5 @@
+package com.tw.go.plugin;
+
+public interface RevisionHandler {
+	public void handle(Revision revision) throws Exception;
+}
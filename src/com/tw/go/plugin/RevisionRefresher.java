@@ -0,0 +1,219 @@
+package com.tw.go.plugin;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// keeps every polled material fetched in the background, so a poll answers from the last fetch instead of waiting for the git server
+public class RevisionRefresher {
+    private static Logger LOGGER = Logger.getLoggerFor(RevisionRefresher.class);
+
+    private static final long REFRESH_SECONDS = Long.getLong("git.poller.refresh.seconds", 0L);
+
+    private static final RevisionRefresher INSTANCE = new RevisionRefresher(
+            TimeUnit.SECONDS.toMillis(REFRESH_SECONDS),
+            TimeUnit.SECONDS.toMillis(Long.getLong("git.poller.refresh.max.age.seconds", REFRESH_SECONDS)),
+            TimeUnit.SECONDS.toMillis(Long.getLong("git.poller.refresh.wait.seconds", 5L)),
+            TimeUnit.SECONDS.toMillis(Long.getLong("git.poller.refresh.idle.seconds", 3600L)),
+            Integer.getInteger("git.poller.refresh.threads", 4));
+
+    private final long refreshInterval;
+    private final long maxAge;
+    private final long maxWait;
+    private final long idleTimeout;
+    private final ConcurrentMap<String, Material> materials = new ConcurrentHashMap<String, Material>();
+    private final ExecutorService refreshers;
+    private final ScheduledExecutorService scheduler;
+
+    RevisionRefresher(long refreshInterval, long maxAge, long maxWait, long idleTimeout, int threads) {
+        this.refreshInterval = refreshInterval;
+        this.maxAge = maxAge;
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        if (refreshInterval <= 0) {
+            refreshers = null;
+            scheduler = null;
+            return;
+        }
+        refreshers = Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory("git-poller-refresh"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("git-poller-refresh-scheduler"));
+        long tick = Math.max(100, Math.min(1000, refreshInterval / 4));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refreshDue();
+                } catch (Exception e) {
+                    LOGGER.warn("scheduling background refreshes failed: ", e);
+                }
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public static RevisionRefresher getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return refreshers != null && !refreshers.isShutdown();
+    }
+
+    // stops the background fetches, polls then fetch for themselves as if refreshing were disabled
+    public void shutdown() {
+        if (refreshers != null) {
+            scheduler.shutdownNow();
+            refreshers.shutdownNow();
+        }
+    }
+
+    public Revision getLatestRevision(String url, String folder, Map<String, String> configuration) throws Exception {
+        return await(url, folder, configuration).revision;
+    }
+
+    // for callers that read the flyweight folder themselves once it has been fetched
+    public void awaitFetched(String url, String folder, Map<String, String> configuration) throws Exception {
+        await(url, folder, configuration);
+    }
+
+    // fresh enough results come back at once, otherwise a refresh gets a short wait before the last result is used anyway
+    private Result await(String url, String folder, Map<String, String> configuration) throws Exception {
+        Deadline deadline = Deadline.forRequest();
+        Material material = register(url, folder, configuration);
+        Result last = material.result;
+        if (last != null && !last.configuration.equals(configuration)) {
+            last = null;
+        }
+        if (last != null && last.getAge() < maxAge) {
+            return last;
+        }
+        Future<Result> refresh = material.refresh();
+        Result refreshed;
+        try {
+            refreshed = refresh.get(last == null ? deadline.remainingMillis() : maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (last == null) {
+                throw new TimeoutException("request deadline passed waiting for the refresh of " + folder);
+            }
+            LOGGER.warn("refresh of " + folder + " is taking longer than " + maxWait + "ms. reporting what was fetched " + last.getAge() + "ms ago");
+            return last;
+        } catch (ExecutionException e) {
+            if (last == null) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            LOGGER.warn("refresh of " + folder + " failed. reporting what was fetched " + last.getAge() + "ms ago");
+            return last;
+        }
+        // another poll of the same folder changed the configuration meanwhile, this one fetches for itself
+        return refreshed.configuration.equals(configuration) ? refreshed : fetch(url, folder, configuration, deadline);
+    }
+
+    private static Result fetch(String url, String folder, Map<String, String> configuration, Deadline deadline) throws Exception {
+        long start = System.currentTimeMillis();
+        JGitHelper jGit = new JGitHelper(new GitConfig(configuration), deadline);
+        jGit.cloneOrFetchBare(url, folder);
+        return new Result(jGit.getLatestRevision(folder), configuration, start);
+    }
+
+    private Material register(String url, String folder, Map<String, String> configuration) {
+        Material material = materials.get(folder);
+        if (material == null) {
+            Material created = new Material();
+            material = materials.putIfAbsent(folder, created);
+            material = material == null ? created : material;
+        }
+        material.update(url, folder, configuration);
+        return material;
+    }
+
+    private void refreshDue() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Material> iterator = materials.values().iterator(); iterator.hasNext(); ) {
+            Material material = iterator.next();
+            if (now - material.lastPolled > idleTimeout) {
+                iterator.remove();
+                continue;
+            }
+            Result result = material.result;
+            if (result == null || result.getAge() >= refreshInterval) {
+                material.refresh();
+            }
+        }
+    }
+
+    private class Material {
+        private String url;
+        private String folder;
+        private Map<String, String> configuration;
+        private volatile long lastPolled;
+        private volatile Result result;
+        private FutureTask<Result> inFlight;
+        private Map<String, String> inFlightConfiguration;
+
+        synchronized void update(String url, String folder, Map<String, String> configuration) {
+            this.url = url;
+            this.folder = folder;
+            this.configuration = new HashMap<String, String>(configuration);
+            this.lastPolled = System.currentTimeMillis();
+        }
+
+        // a refresh started for an older configuration is left to finish, but no longer answers polls
+        synchronized Future<Result> refresh() {
+            if (inFlight != null && !inFlight.isDone() && inFlightConfiguration.equals(configuration)) {
+                return inFlight;
+            }
+            final String refreshUrl = url;
+            final String refreshFolder = folder;
+            final Map<String, String> refreshConfiguration = configuration;
+            inFlightConfiguration = refreshConfiguration;
+            inFlight = new FutureTask<Result>(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception {
+                    try {
+                        return complete(fetch(refreshUrl, refreshFolder, refreshConfiguration, Deadline.forRequest()));
+                    } catch (Exception e) {
+                        LOGGER.warn("background refresh of " + refreshFolder + " failed: ", e);
+                        throw e;
+                    }
+                }
+            });
+            refreshers.execute(inFlight);
+            return inFlight;
+        }
+
+        private synchronized Result complete(Result refreshed) {
+            if (refreshed.configuration.equals(configuration)) {
+                result = refreshed;
+            }
+            return refreshed;
+        }
+    }
+
+    private static class Result {
+        private final Revision revision;
+        private final Map<String, String> configuration;
+        private final long fetchedAt;
+
+        private Result(Revision revision, Map<String, String> configuration, long fetchedAt) {
+            this.revision = revision;
+            this.configuration = configuration;
+            this.fetchedAt = fetchedAt;
+        }
+
+        private long getAge() {
+            return System.currentTimeMillis() - fetchedAt;
+        }
+    }
+}
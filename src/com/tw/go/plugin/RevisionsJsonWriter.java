@@ -0,0 +1,73 @@
+package com.tw.go.plugin;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+
+public class RevisionsJsonWriter implements RevisionHandler {
+    private static final String DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+    private final StringWriter json = new StringWriter();
+    private final JsonWriter jsonWriter = createJsonWriter(json);
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+    private int count;
+    private long renderNanos;
+
+    @Override
+    public void handle(Revision revision) throws IOException {
+        long start = System.nanoTime();
+        if (count++ == 0) {
+            jsonWriter.beginObject().name("revisions").beginArray();
+        }
+        writeRevision(jsonWriter, revision, dateFormat);
+        renderNanos += System.nanoTime() - start;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public String toJson() throws IOException {
+        if (count == 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        jsonWriter.endArray().endObject().flush();
+        PollerMetrics.getInstance().record(PollerMetrics.RENDER, renderNanos + System.nanoTime() - start);
+        return json.toString();
+    }
+
+    public static String toJson(Revision revision) throws IOException {
+        long start = System.nanoTime();
+        StringWriter json = new StringWriter();
+        JsonWriter jsonWriter = createJsonWriter(json);
+        writeRevision(jsonWriter, revision, new SimpleDateFormat(DATE_PATTERN));
+        jsonWriter.flush();
+        PollerMetrics.getInstance().recordSince(PollerMetrics.RENDER, start);
+        return json.toString();
+    }
+
+    private static void writeRevision(JsonWriter jsonWriter, Revision revision, SimpleDateFormat dateFormat) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("revision").value(revision.getRevision());
+        jsonWriter.name("timestamp").value(dateFormat.format(revision.getTimestamp()));
+        jsonWriter.name("revisionComment").value(revision.getComment());
+        jsonWriter.name("modifiedFiles").beginArray();
+        for (ModifiedFile modifiedFile : revision.getModifiedFiles()) {
+            jsonWriter.beginObject();
+            jsonWriter.name("fileName").value(modifiedFile.getFileName());
+            jsonWriter.name("action").value(modifiedFile.getAction());
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+    }
+
+    private static JsonWriter createJsonWriter(StringWriter json) {
+        JsonWriter jsonWriter = new JsonWriter(json);
+        jsonWriter.setHtmlSafe(true);
+        return jsonWriter;
+    }
+}
@@ -0,0 +1,59 @@
+package com.tw.go.plugin;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SCMRequest {
+    @SerializedName("scm-configuration")
+    private Map<String, Map<String, String>> scmConfiguration;
+
+    @SerializedName("flyweight-folder")
+    private String flyweightFolder;
+
+    @SerializedName("destination-folder")
+    private String destinationFolder;
+
+    @SerializedName("previous-revision")
+    private SCMRevision previousRevision;
+
+    @SerializedName("revision")
+    private SCMRevision revision;
+
+    private transient Map<String, String> configuration;
+
+    public Map<String, String> getConfiguration() {
+        if (configuration == null) {
+            Map<String, String> keyValuePairs = new HashMap<String, String>();
+            if (scmConfiguration != null) {
+                for (Map.Entry<String, Map<String, String>> field : scmConfiguration.entrySet()) {
+                    keyValuePairs.put(field.getKey(), field.getValue() == null ? null : field.getValue().get("value"));
+                }
+            }
+            configuration = Collections.unmodifiableMap(keyValuePairs);
+        }
+        return configuration;
+    }
+
+    public String getFlyweightFolder() {
+        return flyweightFolder;
+    }
+
+    public String getDestinationFolder() {
+        return destinationFolder;
+    }
+
+    public String getPreviousRevision() {
+        return previousRevision == null ? null : previousRevision.revision;
+    }
+
+    public String getRevision() {
+        return revision == null ? null : revision.revision;
+    }
+
+    private static class SCMRevision {
+        private String revision;
+    }
+}
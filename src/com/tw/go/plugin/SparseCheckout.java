@@ -0,0 +1,109 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// JGit has no sparse checkout, so the index and working tree only ever hold the paths matching the patterns
+public class SparseCheckout {
+    private final Repository repository;
+    private final List<String> patterns;
+
+    public SparseCheckout(Repository repository, List<String> patterns) {
+        this.repository = repository;
+        this.patterns = patterns;
+    }
+
+    public void checkout(RevCommit target) throws IOException {
+        File workTree = repository.getWorkTree();
+        ObjectReader reader = repository.newObjectReader();
+        DirCache dirCache = repository.lockDirCache();
+        try {
+            Map<String, DirCacheEntry> previousEntries = new HashMap<String, DirCacheEntry>();
+            for (int i = 0; i < dirCache.getEntryCount(); i++) {
+                previousEntries.put(dirCache.getEntry(i).getPathString(), dirCache.getEntry(i));
+            }
+
+            List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>();
+            TreeWalk treeWalk = new TreeWalk(reader);
+            try {
+                treeWalk.addTree(target.getTree());
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(new PathGlobFilter(patterns, Collections.<String>emptyList()));
+                while (treeWalk.next()) {
+                    DirCacheEntry entry = new DirCacheEntry(treeWalk.getRawPath());
+                    entry.setObjectId(treeWalk.getObjectId(0));
+                    entry.setFileMode(treeWalk.getFileMode(0));
+                    entries.add(entry);
+                }
+            } finally {
+                treeWalk.release();
+            }
+
+            // stale paths go first, a file may be turning into a directory of the same name or the other way round
+            Set<String> stalePaths = new HashSet<String>(previousEntries.keySet());
+            for (DirCacheEntry entry : entries) {
+                stalePaths.remove(entry.getPathString());
+            }
+            for (String path : stalePaths) {
+                delete(workTree, new File(workTree, path));
+            }
+
+            DirCacheBuilder builder = dirCache.builder();
+            for (DirCacheEntry entry : entries) {
+                DirCacheEntry previous = previousEntries.get(entry.getPathString());
+                if (isUnchanged(previous, entry, new File(workTree, entry.getPathString()))) {
+                    entry.setLength(previous.getLength());
+                    entry.setLastModified(previous.getLastModified());
+                } else if (entry.getFileMode() != FileMode.GITLINK) {
+                    DirCacheCheckout.checkoutEntry(repository, entry, reader);
+                }
+                builder.add(entry);
+            }
+            builder.commit();
+        } finally {
+            dirCache.unlock();
+            reader.release();
+        }
+
+        RefUpdate update = repository.updateRef(Constants.HEAD);
+        update.setNewObjectId(target);
+        update.forceUpdate();
+    }
+
+    // the stat data recorded at the last checkout stands in for hashing the file again
+    private boolean isUnchanged(DirCacheEntry previous, DirCacheEntry entry, File file) {
+        return previous != null
+                && previous.getObjectId().equals(entry.getObjectId())
+                && previous.getFileMode() == entry.getFileMode()
+                && file.isFile()
+                && file.length() == previous.getLength()
+                && file.lastModified() == previous.getLastModified();
+    }
+
+    private void delete(File workTree, File file) {
+        file.delete();
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(workTree) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.tw.go.plugin;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+import java.lang.reflect.Method;
+
+// sizes jgit's process wide pack caches from one budget, since the plugin shares the go server's heap
+public class StorageConfig {
+    private static Logger LOGGER = Logger.getLoggerFor(StorageConfig.class);
+
+    private static final long MB = 1024 * 1024;
+    static final String WINDOW_CACHE = "org.eclipse.jgit.internal.storage.file.WindowCache";
+
+    private static final StorageConfig INSTANCE = new StorageConfig(
+            Long.getLong("git.poller.storage.memory.mb", defaultBudgetMb()) * MB,
+            Integer.getInteger("git.poller.storage.window.kb", 8) * 1024,
+            Integer.getInteger("git.poller.storage.open.files", 128),
+            Boolean.getBoolean("git.poller.storage.mmap"),
+            new WindowCacheStats(WINDOW_CACHE, "getOpenBytes", "getOpenFiles"));
+
+    private final long budgetBytes;
+    private final int windowSize;
+    private final int openFiles;
+    private final boolean mmap;
+    private final WindowCacheStats stats;
+    private boolean installed;
+    private long samples;
+    private long fullSamples;
+
+    StorageConfig(long budgetBytes, int windowSize, int openFiles, boolean mmap) {
+        this(budgetBytes, windowSize, openFiles, mmap, null);
+    }
+
+    StorageConfig(long budgetBytes, int windowSize, int openFiles, boolean mmap, WindowCacheStats stats) {
+        this.budgetBytes = budgetBytes;
+        this.windowSize = windowSize;
+        this.openFiles = openFiles;
+        this.mmap = mmap;
+        this.stats = stats;
+    }
+
+    public static StorageConfig getInstance() {
+        return INSTANCE;
+    }
+
+    // an eighth of the heap, within what is useful for a poller
+    private static long defaultBudgetMb() {
+        return Math.max(32, Math.min(512, Runtime.getRuntime().maxMemory() / MB / 8));
+    }
+
+    public synchronized void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        WindowCacheConfig config = toWindowCacheConfig();
+        try {
+            config.install();
+            LOGGER.info("pack cache " + (config.getPackedGitLimit() / MB) + "MB in " + (config.getPackedGitWindowSize() / 1024) + "KB windows"
+                    + (config.isPackedGitMMAP() ? " (mmap)" : "") + ", delta base cache " + (config.getDeltaBaseCacheLimit() / MB) + "MB, "
+                    + config.getPackedGitOpenFiles() + " open packs");
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("keeping default pack cache settings: ", e);
+        }
+    }
+
+    // most of the budget holds pack windows, a fifth keeps inflated delta bases, large blobs are streamed
+    WindowCacheConfig toWindowCacheConfig() {
+        WindowCacheConfig config = new WindowCacheConfig();
+        int window = Integer.highestOneBit(Math.max(4096, windowSize));
+        long packedGitLimit = Math.max(window, budgetBytes * 4 / 5);
+        config.setPackedGitWindowSize(window);
+        config.setPackedGitLimit(packedGitLimit);
+        config.setDeltaBaseCacheLimit((int) Math.min(Integer.MAX_VALUE, Math.max(MB, budgetBytes / 5)));
+        config.setStreamFileThreshold((int) Math.min(Integer.MAX_VALUE, Math.max(MB, budgetBytes / 10)));
+        config.setPackedGitOpenFiles(Math.max(1, openFiles));
+        config.setPackedGitMMAP(mmap);
+        return config;
+    }
+
+    // jgit 3.x keeps no hit or eviction counts, so how often the cache is found full after a request is the eviction pressure we can see
+    public synchronized void sample() {
+        if (stats == null || !stats.isAvailable()) {
+            return;
+        }
+        long openBytes = stats.getOpenBytes();
+        long openPacks = stats.getOpenFiles();
+        if (openBytes >= 0 && openPacks >= 0) {
+            WindowCacheConfig config = toWindowCacheConfig();
+            samples++;
+            if (openBytes + config.getPackedGitWindowSize() > config.getPackedGitLimit() || openPacks >= config.getPackedGitOpenFiles()) {
+                fullSamples++;
+            }
+        }
+    }
+
+    public synchronized double getFullRate() {
+        return samples == 0 ? 0 : (double) fullSamples / samples;
+    }
+
+    public String getSnapshot() {
+        WindowCacheConfig config = toWindowCacheConfig();
+        boolean available = stats != null && stats.isAvailable();
+        return "pack.cache.bytes " + (available ? String.valueOf(stats.getOpenBytes()) : "unavailable") + " of " + config.getPackedGitLimit() + "\n"
+                + "pack.cache.open.files " + (available ? String.valueOf(stats.getOpenFiles()) : "unavailable") + " of " + config.getPackedGitOpenFiles() + "\n"
+                + "pack.cache.full.rate " + (available ? String.format("%.3f", getFullRate()) : "unavailable") + "\n";
+    }
+
+    // the counters live on an internal jgit class, looked up by name so that a jgit without them only loses the statistics
+    static class WindowCacheStats {
+        private final Method getInstance;
+        private final Method openBytes;
+        private final Method openFiles;
+        private volatile boolean available;
+
+        WindowCacheStats(String className, String openBytesName, String openFilesName) {
+            Method instanceMethod = null;
+            Method openBytesMethod = null;
+            Method openFilesMethod = null;
+            try {
+                Class<?> windowCache = Class.forName(className);
+                instanceMethod = accessible(windowCache.getDeclaredMethod("getInstance"));
+                openBytesMethod = accessible(windowCache.getDeclaredMethod(openBytesName));
+                openFilesMethod = accessible(windowCache.getDeclaredMethod(openFilesName));
+                available = true;
+            } catch (Throwable t) {
+                LOGGER.warn("pack cache statistics are unavailable: " + t);
+            }
+            this.getInstance = instanceMethod;
+            this.openBytes = openBytesMethod;
+            this.openFiles = openFilesMethod;
+        }
+
+        boolean isAvailable() {
+            return available;
+        }
+
+        long getOpenBytes() {
+            return get(openBytes);
+        }
+
+        long getOpenFiles() {
+            return get(openFiles);
+        }
+
+        // a jgit that changed underneath the lookup is reported once, then the statistics stay unavailable
+        private long get(Method stat) {
+            if (!available) {
+                return -1;
+            }
+            try {
+                return ((Number) stat.invoke(getInstance.invoke(null))).longValue();
+            } catch (Throwable t) {
+                if (available) {
+                    available = false;
+                    LOGGER.warn("pack cache statistics are unavailable: " + t);
+                }
+                return -1;
+            }
+        }
+
+        private static Method accessible(Method method) {
+            method.setAccessible(true);
+            return method;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.tw.go.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.UUID;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class AdvertisedRefsCacheTest {
+    private File testDir = new File("/tmp", UUID.randomUUID().toString());
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(testDir);
+    }
+
+    @Test
+    public void shouldReuseAdvertisedRefsWithinTtl() throws Exception {
+        File repository = repository("first");
+        AdvertisedRefsCache cache = new AdvertisedRefsCache(60000, 10);
+        ObjectId first = cache.get(repository.getAbsolutePath()).get(Constants.R_HEADS + Constants.MASTER);
+
+        ObjectId second = commit(repository, "second");
+
+        assertThat(cache.get(repository.getAbsolutePath()).get(Constants.R_HEADS + Constants.MASTER), is(first));
+        cache.invalidate(repository.getAbsolutePath());
+        assertThat(cache.get(repository.getAbsolutePath()).get(Constants.R_HEADS + Constants.MASTER), is(second));
+    }
+
+    @Test
+    public void shouldAskRemoteEveryTimeWithoutTtl() throws Exception {
+        File repository = repository("first");
+        AdvertisedRefsCache cache = new AdvertisedRefsCache(0, 10);
+        cache.get(repository.getAbsolutePath());
+
+        ObjectId second = commit(repository, "second");
+
+        assertThat(cache.get(repository.getAbsolutePath()).get(Constants.R_HEADS + Constants.MASTER), is(second));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldDropLeastRecentlyPolledRemoteOnceFull() throws Exception {
+        AdvertisedRefsCache cache = new AdvertisedRefsCache(60000, 2);
+        File first = repository("first");
+        File second = repository("second");
+        ObjectId firstTip = cache.get(first.getAbsolutePath()).get(Constants.R_HEADS + Constants.MASTER);
+        cache.get(second.getAbsolutePath());
+        cache.get(first.getAbsolutePath());
+
+        cache.get(repository("third").getAbsolutePath());
+        commit(first, "advanced");
+        ObjectId secondTip = commit(second, "advanced");
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get(first.getAbsolutePath()).get(Constants.R_HEADS + Constants.MASTER), is(firstTip));
+        assertThat(cache.get(second.getAbsolutePath()).get(Constants.R_HEADS + Constants.MASTER), is(secondTip));
+    }
+
+    private File repository(String name) throws Exception {
+        File folder = new File(testDir, name);
+        Git.init().setDirectory(folder).call().getRepository().close();
+        commit(folder, "initial");
+        return folder;
+    }
+
+    private ObjectId commit(File folder, String message) throws Exception {
+        Git git = Git.open(folder);
+        try {
+            FileUtils.writeStringToFile(new File(folder, message + ".txt"), message);
+            git.add().addFilepattern(message + ".txt").call();
+            return git.commit().setMessage(message).call().copy();
+        } finally {
+            git.getRepository().close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.tw.go.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.UUID;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class CommitGraphTest {
+    private File folder = new File("/tmp", UUID.randomUUID().toString());
+    private File graphFile = new File(folder, "graph");
+    private Git git;
+    private int time = 1422168000;
+
+    @Before
+    public void setUp() throws Exception {
+        git = Git.init().setDirectory(folder).call();
+    }
+
+    @After
+    public void tearDown() {
+        git.getRepository().close();
+        FileUtils.deleteQuietly(folder);
+    }
+
+    @Test
+    public void shouldAnswerAncestryAcrossMergesWithoutTheRepository() throws Exception {
+        RevCommit base = commit("base");
+        RevCommit first = commit("first");
+        git.branchCreate().setName("topic").setStartPoint(base).call();
+        git.checkout().setName("topic").call();
+        RevCommit topic = commit("topic");
+        git.checkout().setName(Constants.MASTER).call();
+        git.merge().include(topic).setCommit(false).call();
+        RevCommit merge = commit("merge");
+        RevCommit last = commit("last");
+
+        new CommitGraph(graphFile).update(git.getRepository());
+        CommitGraph graph = new CommitGraph(graphFile);
+
+        assertThat(graph.size(), is(5));
+        assertThat(graph.commitsSince(last, first), is(asList((ObjectId) last, merge, topic)));
+        assertThat(graph.commitsSince(last, last).isEmpty(), is(true));
+        assertThat(graph.isAncestor(topic, last), is(true));
+        assertThat(graph.isAncestor(first, topic), is(false));
+        assertThat(graph.isAncestor(base, base), is(true));
+    }
+
+    @Test
+    public void shouldExtendGraphWithNewCommitsOnly() throws Exception {
+        RevCommit first = commit("first");
+        CommitGraph graph = new CommitGraph(graphFile);
+        graph.update(git.getRepository());
+        assertThat(graph.size(), is(1));
+        assertThat(graph.commitsSince(first, ObjectId.zeroId()) == null, is(true));
+
+        RevCommit second = commit("second");
+        RevCommit third = commit("third");
+        assertThat(graph.contains(third), is(false));
+        graph.update(git.getRepository());
+
+        assertThat(graph.size(), is(3));
+        assertThat(new CommitGraph(graphFile).commitsSince(third, first), is(asList((ObjectId) third, second)));
+    }
+
+    @Test
+    public void shouldNotIndexTaggedCommitsAgain() throws Exception {
+        RevCommit first = commit("first");
+        RevCommit second = commit("second");
+        git.tag().setName("release").setAnnotated(true).setMessage("release").setObjectId(first).call();
+        CommitGraph graph = new CommitGraph(graphFile);
+
+        graph.update(git.getRepository());
+        graph.update(git.getRepository());
+        assertThat(graph.size(), is(2));
+
+        RevCommit third = commit("third");
+        graph.update(git.getRepository());
+        graph.update(git.getRepository());
+
+        assertThat(graph.size(), is(3));
+        assertThat(new CommitGraph(graphFile).commitsSince(third, first), is(asList((ObjectId) third, second)));
+    }
+
+    @Test
+    public void shouldAppendToTipLayerAndMergeItOnceItGrows() throws Exception {
+        RevCommit first = commit("first");
+        CommitGraph graph = new CommitGraph(graphFile, 2);
+        graph.update(git.getRepository());
+        byte[] base = FileUtils.readFileToByteArray(graphFile);
+        File tipFile = new File(graphFile.getPath() + "-tip");
+
+        git.branchCreate().setName("topic").setStartPoint(first).call();
+        RevCommit second = commit("second");
+        git.checkout().setName("topic").call();
+        RevCommit topic = commit("topic");
+        git.checkout().setName(Constants.MASTER).call();
+        graph.update(git.getRepository());
+
+        assertThat(FileUtils.readFileToByteArray(graphFile), is(base));
+        assertThat(tipFile.exists(), is(true));
+        assertThat(new CommitGraph(graphFile, 2).size(), is(3));
+        assertThat(new CommitGraph(graphFile, 2).isAncestor(first, topic), is(true));
+
+        git.merge().include(topic).setCommit(false).call();
+        RevCommit merge = commit("merge");
+        graph.update(git.getRepository());
+
+        assertThat(tipFile.exists(), is(false));
+        CommitGraph merged = new CommitGraph(graphFile, 2);
+        assertThat(merged.size(), is(4));
+        assertThat(merged.commitsSince(merge, first), is(asList((ObjectId) merge, topic, second)));
+        assertThat(merged.isAncestor(topic, merge), is(true));
+    }
+
+    @Test
+    public void shouldDiscardTipLayerOfAnotherBase() throws Exception {
+        commit("first");
+        CommitGraph graph = new CommitGraph(graphFile, 2);
+        graph.update(git.getRepository());
+        commit("second");
+        graph.update(git.getRepository());
+        File tipFile = new File(graphFile.getPath() + "-tip");
+        byte[] tip = FileUtils.readFileToByteArray(tipFile);
+        commit("third");
+        commit("fourth");
+        graph.update(git.getRepository());
+        FileUtils.writeByteArrayToFile(tipFile, tip);
+
+        CommitGraph reloaded = new CommitGraph(graphFile, 2);
+
+        assertThat(reloaded.size(), is(4));
+        assertThat(tipFile.exists(), is(false));
+    }
+
+    @Test
+    public void shouldDiscardCorruptGraph() throws Exception {
+        commit("first");
+        FileUtils.writeStringToFile(graphFile, "not a graph");
+
+        CommitGraph graph = new CommitGraph(graphFile);
+
+        assertThat(graph.size(), is(0));
+        graph.update(git.getRepository());
+        assertThat(graph.size(), is(1));
+    }
+
+    private RevCommit commit(String message) throws Exception {
+        FileUtils.writeStringToFile(new File(folder, message + ".txt"), message);
+        git.add().addFilepattern(message + ".txt").call();
+        time += 60;
+        PersonIdent ident = new PersonIdent("author", "author@example.com", time * 1000L, 0);
+        return git.commit().setMessage(message).setAuthor(ident).setCommitter(ident).call();
+    }
+}
@@ -0,0 +1,152 @@
+package com.tw.go.plugin;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class FolderLocksTest {
+    @Test
+    public void shouldShareInFlightCallForSameKey() throws Exception {
+        final FolderLocks locks = new FolderLocks();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Integer> fetch = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                release.await();
+                return calls.incrementAndGet();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return locks.singleFlight("url", fetch);
+                }
+            });
+            started.await(5, TimeUnit.SECONDS);
+            Future<Integer> second = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return locks.singleFlight("url", fetch);
+                }
+            });
+            Thread.sleep(100);
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS), is(1));
+            assertThat(second.get(5, TimeUnit.SECONDS), is(1));
+            assertThat(calls.get(), is(1));
+            assertThat(locks.singleFlight("url", fetch), is(2));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldStopWaitingForCallInFlightWhenDeadlinePasses() throws Exception {
+        final FolderLocks locks = new FolderLocks();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return locks.singleFlight("url", new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            return 1;
+                        }
+                    });
+                }
+            });
+            started.await(5, TimeUnit.SECONDS);
+
+            try {
+                locks.singleFlight("url", new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return 2;
+                    }
+                }, Deadline.after(50));
+                fail("expected the wait to time out");
+            } catch (TimeoutException e) {
+                assertThat(e.getMessage(), is("request deadline passed waiting for url"));
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldUseSameLockForFolderAndItsGitDir() throws Exception {
+        FolderLocks locks = new FolderLocks();
+
+        assertThat(isLockedElsewhere(locks.lockForGitDir(new File("/tmp/pipeline/.git")), locks.lockFor("/tmp/pipeline")), is(true));
+        assertThat(isLockedElsewhere(locks.lockForGitDir(new File("/tmp/flyweight")), locks.lockFor("/tmp/flyweight/.")), is(true));
+    }
+
+    @Test
+    public void shouldNeverBlockDifferentFolders() throws Exception {
+        FolderLocks locks = new FolderLocks();
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(isLockedElsewhere(locks.lockFor("/tmp/material-" + i), locks.lockFor("/tmp/other-material-" + i)), is(false));
+        }
+        assertThat(locks.size(), is(0));
+    }
+
+    // holds the first lock on another thread and reports whether the second one is then taken
+    private boolean isLockedElsewhere(final Lock held, Lock other) throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    held.lock();
+                    try {
+                        locked.countDown();
+                        release.await();
+                    } finally {
+                        held.unlock();
+                    }
+                    return null;
+                }
+            });
+            locked.await(5, TimeUnit.SECONDS);
+            if (other.tryLock()) {
+                other.unlock();
+                return false;
+            }
+            return true;
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -47,6 +48,68 @@ public class GitPluginImplTest {
         verifyValidationSuccess(TEST_DIR);
     }
 
+    @Test
+    public void shouldHandleInvalidLimitsCorrectly_ValidationRequest() {
+        Map request = createRequestMap(Arrays.asList(new Pair("url", "http://crap.com/git-repo"), new Pair(GitConfig.MAX_MODIFIED_FILES, "-1")));
+
+        GoPluginApiResponse response = new GitPluginImpl().handle(createGoPluginApiRequest(GitPluginImpl.REQUEST_VALIDATE_SCM_CONFIGURATION, request));
+
+        verifyResponse(response.responseBody(), Arrays.asList(new Pair(GitConfig.MAX_MODIFIED_FILES, "Max Modified Files should be a non-negative number")));
+    }
+
+    @Test
+    public void shouldHandleInvalidBranchCorrectly_ValidationRequest() {
+        Map request = createRequestMap(Arrays.asList(new Pair("url", "http://crap.com/git-repo"), new Pair(GitConfig.BRANCH, "feature..x")));
+
+        GoPluginApiResponse response = new GitPluginImpl().handle(createGoPluginApiRequest(GitPluginImpl.REQUEST_VALIDATE_SCM_CONFIGURATION, request));
+
+        verifyResponse(response.responseBody(), Arrays.asList(new Pair(GitConfig.BRANCH, "Branch is not a valid branch name")));
+    }
+
+    @Test
+    public void shouldRenderSCMConfigurationAndView() {
+        GoPluginApiResponse configuration = new GitPluginImpl().handle(createGoPluginApiRequest(GitPluginImpl.REQUEST_SCM_CONFIGURATION, null));
+        GoPluginApiResponse view = new GitPluginImpl().handle(createGoPluginApiRequest(GitPluginImpl.REQUEST_SCM_VIEW, null));
+
+        assertThat(configuration.responseCode(), is(GitPluginImpl.SUCCESS_RESPONSE_CODE));
+        Map fields = new Gson().fromJson(configuration.responseBody(), Map.class);
+        assertThat(((Map) fields.get("url")).get("display-name"), is((Object) "URL"));
+        assertThat(((Map) fields.get("url")).get("part-of-identity"), is((Object) true));
+        assertThat(((Map) fields.get(GitConfig.BRANCH)).get("part-of-identity"), is((Object) true));
+        assertThat(((Map) fields.get(GitConfig.INCLUDES)).get("part-of-identity"), is((Object) true));
+        assertThat(((Map) fields.get(GitConfig.EXCLUDES)).get("part-of-identity"), is((Object) true));
+        assertThat(((Map) fields.get(GitConfig.SPARSE_PATHS)).get("part-of-identity"), is((Object) true));
+        assertThat(((Map) fields.get(GitConfig.MAX_MODIFIED_FILES)).get("part-of-identity"), is((Object) false));
+
+        assertThat(view.responseCode(), is(GitPluginImpl.SUCCESS_RESPONSE_CODE));
+        Map viewBody = new Gson().fromJson(view.responseBody(), Map.class);
+        assertThat(((String) viewBody.get("template")).contains("ng-model=\"url\""), is(true));
+    }
+
+    @Test
+    public void shouldCheckConnectionWithRefAdvertisement() throws Exception {
+        Git git = Git.init().setDirectory(new File(TEST_DIR)).call();
+        FileUtils.writeStringToFile(new File(TEST_DIR, "a.txt"), "a");
+        git.add().addFilepattern("a.txt").call();
+        git.commit().setMessage("first").call();
+        git.getRepository().close();
+
+        Map found = checkConnection(Arrays.asList(new Pair("url", TEST_DIR)));
+        Map missingBranch = checkConnection(Arrays.asList(new Pair("url", TEST_DIR), new Pair(GitConfig.BRANCH, "release")));
+        Map missingRepository = checkConnection(Arrays.asList(new Pair("url", TEST_DIR + "/missing")));
+
+        assertThat((String) found.get("status"), is("success"));
+        assertThat((String) missingBranch.get("status"), is("failure"));
+        assertThat((String) ((List) missingBranch.get("messages")).get(0), is("Could connect to URL but branch release does not exist"));
+        assertThat((String) missingRepository.get("status"), is("failure"));
+    }
+
+    private Map checkConnection(List<Pair> pairs) {
+        GoPluginApiResponse response = new GitPluginImpl().handle(createGoPluginApiRequest(GitPluginImpl.REQUEST_CHECK_SCM_CONNECTION, createRequestMap(pairs)));
+        assertThat(response.responseCode(), is(GitPluginImpl.SUCCESS_RESPONSE_CODE));
+        return new Gson().fromJson(response.responseBody(), Map.class);
+    }
+
     private void verifyValidationSuccess(String url) {
         Map request = createRequestMap(Arrays.asList(new Pair("url", url)));
 
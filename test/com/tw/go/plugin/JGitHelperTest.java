@@ -2,19 +2,35 @@ package com.tw.go.plugin;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class JGitHelperTest {
     private static final int BUFFER_SIZE = 4096;
@@ -22,6 +38,7 @@ public class JGitHelperTest {
     private JGitHelper jGit = new JGitHelper();
     private File testRepository = new File("/tmp", UUID.randomUUID().toString());
     private File simpleGitRepository = new File("/tmp", "simple-git-repository");
+    private File mirrors = new File("/tmp", "git-poller-mirrors");
 
     @Before
     public void setUp() {
@@ -36,6 +53,7 @@ public class JGitHelperTest {
     private void cleanTmpFiles() {
         FileUtils.deleteQuietly(testRepository);
         FileUtils.deleteQuietly(simpleGitRepository);
+        FileUtils.deleteQuietly(mirrors);
     }
 
     @Test
@@ -62,6 +80,367 @@ public class JGitHelperTest {
         verifyRevision(newerRevisions.get(1), "1320a78055558603a2c29d803bbaa50d3542ff50", "2", asList(new Pair("a.txt", "modified")));
     }
 
+    @Test
+    public void shouldLeaveUpToDateWorkingCopyAlone() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-1.zip");
+        jGit.cloneOrFetch(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+        FileUtils.writeStringToFile(new File(testRepository, "untracked.txt"), "untracked");
+
+        jGit.cloneOrFetch(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        assertThat(new File(testRepository, "untracked.txt").exists(), is(true));
+
+        try {
+            new JGitHelper(GitConfig.defaults(), Deadline.after(0)).isUpToDate(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+            fail("expected the comparison to time out");
+        } catch (TimeoutException e) {
+            assertThat(e.getMessage(), is("request deadline passed before listing remote refs"));
+        }
+    }
+
+    @Test
+    public void shouldPollBareRepositoryCorrectly() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-1.zip");
+
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        assertThat(jGit.isUpToDate(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath()), is(true));
+        assertThat(new File(testRepository, ".git").exists(), is(false));
+        assertThat(new File(testRepository, "a.txt").exists(), is(false));
+
+        Revision revision = jGit.getLatestRevision(testRepository.getAbsolutePath());
+
+        verifyRevision(revision, "012e893acea10b140688d11beaa728e8c60bd9f6", "1", asList(new Pair("a.txt", "add")));
+
+        FileUtils.deleteQuietly(simpleGitRepository.getAbsoluteFile());
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+
+        assertThat(jGit.isUpToDate(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath()), is(false));
+
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        List<Revision> newerRevisions = jGit.getNewerRevisions(testRepository.getAbsolutePath(), "012e893acea10b140688d11beaa728e8c60bd9f6");
+
+        assertThat(newerRevisions.size(), is(2));
+        verifyRevision(newerRevisions.get(0), "24ce45d1a1427b643ae859777417bbc9f0d7cec8", "3\ntest multiline\ncomment", asList(new Pair("a.txt", "modified"), new Pair("b.txt", "added")));
+        verifyRevision(newerRevisions.get(1), "1320a78055558603a2c29d803bbaa50d3542ff50", "2", asList(new Pair("a.txt", "modified")));
+    }
+
+    @Test
+    public void shouldShareOneMirrorBetweenFlyweightsOfSameUrl() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        File firstFlyweight = new File(testRepository, "first");
+        File secondFlyweight = new File(testRepository, "second");
+
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), firstFlyweight.getAbsolutePath());
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath() + "/", secondFlyweight.getAbsolutePath());
+
+        assertThat(new File(testRepository, "git-poller-mirrors").list().length, is(1));
+        assertThat(new File(firstFlyweight, "objects/pack").list().length, is(0));
+        assertThat(new File(secondFlyweight, "objects/pack").list().length, is(0));
+        assertThat(jGit.getLatestRevision(firstFlyweight.getAbsolutePath()).getRevision(), is("24ce45d1a1427b643ae859777417bbc9f0d7cec8"));
+        assertThat(jGit.getLatestRevision(secondFlyweight.getAbsolutePath()).getRevision(), is("24ce45d1a1427b643ae859777417bbc9f0d7cec8"));
+    }
+
+    @Test
+    public void shouldPollOnlyConfiguredBranch() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        Git source = Git.open(simpleGitRepository);
+        source.branchCreate().setName("release").setStartPoint("1320a78055558603a2c29d803bbaa50d3542ff50").call();
+        source.tag().setName("v1").call();
+        source.close();
+
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.BRANCH, "release");
+        JGitHelper releaseJGit = new JGitHelper(new GitConfig(configuration));
+        releaseJGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        assertThat(releaseJGit.isUpToDate(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath()), is(true));
+        assertThat(releaseJGit.getLatestRevision(testRepository.getAbsolutePath()).getRevision(), is("1320a78055558603a2c29d803bbaa50d3542ff50"));
+        assertThat(new File(testRepository, "refs/heads/master").exists(), is(false));
+
+        File mirror = new File(mirrors, mirrors.list()[0]);
+        assertThat(new File(mirror, "refs/heads/master").exists(), is(false));
+        assertThat(new File(mirror, "refs/tags").list().length, is(0));
+    }
+
+    @Test
+    public void shouldReportOnlyRevisionsTouchingIncludedPaths() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.EXCLUDES, "b.txt");
+        JGitHelper excludingJGit = new JGitHelper(new GitConfig(configuration));
+        excludingJGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        assertThat(excludingJGit.getNewerRevisions(testRepository.getAbsolutePath(), "012e893acea10b140688d11beaa728e8c60bd9f6").size(), is(2));
+
+        configuration.put(GitConfig.INCLUDES, "*.txt");
+        configuration.put(GitConfig.EXCLUDES, "a.txt");
+        JGitHelper filteredJGit = new JGitHelper(new GitConfig(configuration));
+
+        List<Revision> newerRevisions = filteredJGit.getNewerRevisions(testRepository.getAbsolutePath(), "012e893acea10b140688d11beaa728e8c60bd9f6");
+
+        assertThat(newerRevisions.size(), is(1));
+        verifyRevision(newerRevisions.get(0), "24ce45d1a1427b643ae859777417bbc9f0d7cec8", "3\ntest multiline\ncomment", asList(new Pair("a.txt", "modified"), new Pair("b.txt", "added")));
+
+        configuration.put(GitConfig.INCLUDES, "docs/**");
+        configuration.remove(GitConfig.EXCLUDES);
+        assertThat(new JGitHelper(new GitConfig(configuration)).getLatestRevision(testRepository.getAbsolutePath()) == null, is(true));
+    }
+
+    @Test
+    public void shouldLetDoubleStarMatchNoDirectories() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        Git source = Git.open(simpleGitRepository);
+        FileUtils.writeStringToFile(new File(simpleGitRepository, "docs/a.txt"), "docs");
+        source.add().addFilepattern("docs/a.txt").call();
+        String docs = source.commit().setMessage("docs").call().name();
+        source.getRepository().close();
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.INCLUDES, "**/b.txt");
+        assertThat(new JGitHelper(new GitConfig(configuration)).getLatestRevision(testRepository.getAbsolutePath()).getRevision(), is("24ce45d1a1427b643ae859777417bbc9f0d7cec8"));
+
+        configuration.put(GitConfig.INCLUDES, "docs/**/a.txt");
+        assertThat(new JGitHelper(new GitConfig(configuration)).getLatestRevision(testRepository.getAbsolutePath()).getRevision(), is(docs));
+
+        configuration.remove(GitConfig.INCLUDES);
+        configuration.put(GitConfig.EXCLUDES, "**/a.txt");
+        List<Revision> newerRevisions = new JGitHelper(new GitConfig(configuration)).getNewerRevisions(testRepository.getAbsolutePath(), "012e893acea10b140688d11beaa728e8c60bd9f6");
+        assertThat(newerRevisions.size(), is(1));
+        assertThat(newerRevisions.get(0).getRevision(), is("24ce45d1a1427b643ae859777417bbc9f0d7cec8"));
+
+        File destination = new File(testRepository, "destination");
+        configuration.remove(GitConfig.EXCLUDES);
+        configuration.put(GitConfig.SPARSE_PATHS, "**/a.txt");
+        new JGitHelper(new GitConfig(configuration)).checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), docs);
+
+        assertThat(new File(destination, "a.txt").exists(), is(true));
+        assertThat(new File(destination, "docs/a.txt").exists(), is(true));
+        assertThat(new File(destination, "b.txt").exists(), is(false));
+    }
+
+    @Test
+    public void shouldCapNewerRevisionsAndHandleUnknownPreviousRevision() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        List<Revision> cappedRevisions = new JGitHelper(GitConfig.defaults(), 1).getNewerRevisions(testRepository.getAbsolutePath(), "012e893acea10b140688d11beaa728e8c60bd9f6");
+
+        assertThat(cappedRevisions.size(), is(1));
+        assertThat(cappedRevisions.get(0).getRevision(), is("24ce45d1a1427b643ae859777417bbc9f0d7cec8"));
+
+        List<Revision> rewrittenRevisions = jGit.getNewerRevisions(testRepository.getAbsolutePath(), "0123456789012345678901234567890123456789");
+
+        assertThat(rewrittenRevisions.size(), is(1));
+        assertThat(rewrittenRevisions.get(0).getRevision(), is("24ce45d1a1427b643ae859777417bbc9f0d7cec8"));
+
+        assertThat(jGit.getNewerRevisions(testRepository.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8") == null, is(true));
+    }
+
+    @Test
+    public void shouldKeepOrderWhenDiffingAcrossThreadsAndCacheHits() throws Exception {
+        Git source = Git.init().setDirectory(simpleGitRepository).call();
+        // several workers even on a single processor build machine
+        int diffThreads = 4;
+        int count = diffThreads * JGitHelper.DIFF_WINDOW_PER_THREAD * 2 + 3;
+        String[] commits = new String[count];
+        for (int i = 0; i < count; i++) {
+            String path = (i % 2 == 0 ? "even/" : "odd/") + i + ".txt";
+            FileUtils.writeStringToFile(new File(simpleGitRepository, path), String.valueOf(i));
+            source.add().addFilepattern(path).call();
+            commits[i] = source.commit().setMessage("commit " + i).call().name();
+        }
+        source.getRepository().close();
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        // diffs the even commits only, so the full walk below mixes cache hits and misses in every window
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.INCLUDES, "even/**");
+        assertThat(new JGitHelper(new GitConfig(configuration), count, Deadline.none(), diffThreads).getNewerRevisions(testRepository.getAbsolutePath(), commits[0]).size(), is((count - 1) / 2));
+        long hits = PollerMetrics.getInstance().getCounter(PollerMetrics.REVISION_CACHE_HITS);
+
+        List<Revision> newerRevisions = new JGitHelper(GitConfig.defaults(), count, Deadline.none(), diffThreads).getNewerRevisions(testRepository.getAbsolutePath(), commits[0]);
+
+        assertThat(PollerMetrics.getInstance().getCounter(PollerMetrics.REVISION_CACHE_HITS) - hits, is((long) (count - 1) / 2));
+        assertThat(newerRevisions.size(), is(count - 1));
+        for (int i = 0; i < newerRevisions.size(); i++) {
+            int commit = count - 1 - i;
+            verifyRevision(newerRevisions.get(i), commits[commit], "commit " + commit, asList(new Pair((commit % 2 == 0 ? "even/" : "odd/") + commit + ".txt", "added")));
+        }
+    }
+
+    @Test
+    public void shouldListModifiedFilesUpToConfiguredLimit() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.MAX_MODIFIED_FILES, "1");
+        configuration.put(GitConfig.RENAME_DETECTION_LIMIT, "0");
+        JGitHelper limitedJGit = new JGitHelper(new GitConfig(configuration));
+        limitedJGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        Revision revision = limitedJGit.getLatestRevision(testRepository.getAbsolutePath());
+
+        verifyRevision(revision, "24ce45d1a1427b643ae859777417bbc9f0d7cec8", "3\ntest multiline\ncomment", asList(new Pair("a.txt", "modified"), new Pair("[1 more files not listed]", "unknown")));
+    }
+
+    @Test
+    public void shouldCheckoutFromLocalFlyweightObjects() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        File destination = new File(testRepository, "destination");
+        File flyweight = new File(testRepository, "flyweight");
+
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), flyweight.getAbsolutePath());
+        jGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "1320a78055558603a2c29d803bbaa50d3542ff50");
+
+        assertThat(new File(destination, ".git/objects/info/alternates").exists(), is(true));
+        assertThat(new File(destination, ".git/objects/pack").list().length, is(0));
+        assertThat(new File(destination, "a.txt").exists(), is(true));
+        assertThat(new File(destination, "b.txt").exists(), is(false));
+
+        jGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+
+        assertThat(new File(destination, "b.txt").exists(), is(true));
+    }
+
+    @Test
+    public void shouldCheckoutAgainWhenMirrorGcDroppedBorrowedObjects() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        File destination = new File(testRepository, "destination");
+        File flyweight = new File(testRepository, "flyweight");
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), flyweight.getAbsolutePath());
+        jGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+
+        Git source = Git.open(simpleGitRepository);
+        source.reset().setMode(ResetCommand.ResetType.HARD).setRef("1320a78055558603a2c29d803bbaa50d3542ff50").call();
+        FileUtils.writeStringToFile(new File(simpleGitRepository, "c.txt"), "c");
+        source.add().addFilepattern("c.txt").call();
+        String rewritten = source.commit().setMessage("rewritten").call().name();
+        source.getRepository().close();
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), flyweight.getAbsolutePath());
+        new RepositoryMaintenance(1, 50, Long.MAX_VALUE).maintain(new File(testRepository, "git-poller-mirrors").listFiles()[0]);
+
+        jGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), rewritten);
+
+        assertThat(new File(destination, "c.txt").exists(), is(true));
+        assertThat(new File(destination, "b.txt").exists(), is(false));
+        Git checkout = Git.open(destination);
+        assertThat(checkout.log().add(checkout.getRepository().resolve("refs/remotes/origin/master")).call().iterator().next().name(), is(rewritten));
+        checkout.getRepository().close();
+    }
+
+    @Test
+    public void shouldFetchOnlyPolledBranchForSingleBranchFetch() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        Git source = Git.open(simpleGitRepository);
+        source.tag().setName("release").call();
+        source.getRepository().close();
+        File destination = new File(testRepository, "destination");
+
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.SINGLE_BRANCH_FETCH, "true");
+        new JGitHelper(new GitConfig(configuration)).checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "1320a78055558603a2c29d803bbaa50d3542ff50");
+
+        assertThat(new File(destination, ".git/refs/remotes/origin/master").exists(), is(true));
+        assertThat(tagsOf(destination).isEmpty(), is(true));
+        assertThat(new File(destination, "a.txt").exists(), is(true));
+        assertThat(new File(destination, "b.txt").exists(), is(false));
+
+        // a new checkout is cloned with its tags unless fetching a single branch
+        File cloned = new File(testRepository, "cloned");
+        jGit.checkout(simpleGitRepository.getAbsolutePath(), cloned.getAbsolutePath(), "1320a78055558603a2c29d803bbaa50d3542ff50");
+
+        assertThat(tagsOf(cloned), is(asList("refs/tags/release")));
+    }
+
+    @Test
+    public void shouldUpdateWorkingTreeIncrementallyAndKeepIgnoredFiles() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        File destination = new File(testRepository, "destination");
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.INCREMENTAL_CHECKOUT, "true");
+        JGitHelper incrementalJGit = new JGitHelper(new GitConfig(configuration));
+
+        incrementalJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "1320a78055558603a2c29d803bbaa50d3542ff50");
+        String committedContent = FileUtils.readFileToString(new File(destination, "a.txt"));
+        FileUtils.writeStringToFile(new File(destination, "a.txt"), "local change");
+        FileUtils.writeStringToFile(new File(destination, ".git/info/exclude"), "build/\n");
+        FileUtils.writeStringToFile(new File(destination, "build/cache"), "cached");
+        FileUtils.writeStringToFile(new File(destination, "untracked.txt"), "untracked");
+
+        incrementalJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+
+        assertThat(new File(destination, "b.txt").exists(), is(true));
+        assertThat(FileUtils.readFileToString(new File(destination, "a.txt")).equals("local change"), is(false));
+        assertThat(new File(destination, "untracked.txt").exists(), is(false));
+        assertThat(new File(destination, "build/cache").exists(), is(true));
+
+        incrementalJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "1320a78055558603a2c29d803bbaa50d3542ff50");
+
+        assertThat(new File(destination, "b.txt").exists(), is(false));
+        assertThat(FileUtils.readFileToString(new File(destination, "a.txt")), is(committedContent));
+    }
+
+    @Test
+    public void shouldMaterializeOnlySparsePaths() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        File destination = new File(testRepository, "destination");
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.SPARSE_PATHS, "b.txt");
+        JGitHelper sparseJGit = new JGitHelper(new GitConfig(configuration));
+
+        sparseJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+
+        assertThat(new File(destination, "a.txt").exists(), is(false));
+        assertThat(new File(destination, "b.txt").exists(), is(true));
+
+        sparseJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "1320a78055558603a2c29d803bbaa50d3542ff50");
+
+        assertThat(new File(destination, "a.txt").exists(), is(false));
+        assertThat(new File(destination, "b.txt").exists(), is(false));
+
+        configuration.put(GitConfig.SPARSE_PATHS, "a.txt");
+        new JGitHelper(new GitConfig(configuration)).checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+
+        assertThat(new File(destination, "a.txt").exists(), is(true));
+        assertThat(new File(destination, "b.txt").exists(), is(false));
+    }
+
+    @Test
+    public void shouldSwapFileAndDirectoryOfSameNameInSparseCheckout() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        Git source = Git.open(simpleGitRepository);
+        source.rm().addFilepattern("a.txt").call();
+        FileUtils.writeStringToFile(new File(simpleGitRepository, "a.txt/inner.txt"), "inner");
+        source.add().addFilepattern("a.txt/inner.txt").call();
+        String directory = source.commit().setMessage("a.txt is a directory").call().name();
+        source.getRepository().close();
+        File destination = new File(testRepository, "destination");
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(GitConfig.SPARSE_PATHS, "a.txt");
+        JGitHelper sparseJGit = new JGitHelper(new GitConfig(configuration));
+
+        sparseJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+        assertThat(new File(destination, "a.txt").isFile(), is(true));
+
+        sparseJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), directory);
+        assertThat(new File(destination, "a.txt/inner.txt").isFile(), is(true));
+
+        sparseJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "24ce45d1a1427b643ae859777417bbc9f0d7cec8");
+        assertThat(new File(destination, "a.txt").isFile(), is(true));
+
+        try {
+            sparseJGit.checkout(simpleGitRepository.getAbsolutePath(), destination.getAbsolutePath(), "no-such-revision");
+            fail("expected an unknown revision to be reported");
+        } catch (RefNotFoundException e) {
+            assertThat(e.getMessage(), is("revision no-such-revision can not be resolved in " + destination.getAbsolutePath()));
+        }
+    }
+
     @Test
     public void shouldCheckoutToRevision() throws Exception {
         extractToTmp("/sample-repository/simple-git-repository-2.zip");
@@ -77,6 +456,99 @@ public class JGitHelperTest {
         assertThat(new File(simpleGitRepository, "b.txt").exists(), is(false));
     }
 
+    @Test
+    public void shouldRunMaintenanceOnlyWhenThresholdsAreCrossed() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+        File gitDir = new File(simpleGitRepository, ".git");
+
+        RepositoryMaintenance relaxed = new RepositoryMaintenance(1000, 50, Long.MAX_VALUE);
+        assertThat(relaxed.isNeeded(gitDir), is(false));
+
+        RepositoryMaintenance strict = new RepositoryMaintenance(1, 50, Long.MAX_VALUE);
+        assertThat(strict.isNeeded(gitDir), is(true));
+        assertThat(strict.getLastRun(gitDir) == null, is(true));
+
+        strict.maintain(gitDir);
+
+        assertThat(strict.isNeeded(gitDir), is(false));
+        assertThat(strict.getLastRun(gitDir) != null, is(true));
+    }
+
+    @Test
+    public void shouldPollWithoutWaitingForMaintenance() throws Exception {
+        extractToTmp("/sample-repository/simple-git-repository-1.zip");
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+        FileUtils.deleteQuietly(simpleGitRepository);
+        extractToTmp("/sample-repository/simple-git-repository-2.zip");
+
+        final File mirror = mirrors.listFiles()[0];
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Void> maintenance = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                RepositoryMaintenance.getInstance().maintain(mirror, new ProgressMonitor() {
+                    @Override
+                    public void start(int totalTasks) {
+                    }
+
+                    @Override
+                    public void beginTask(String title, int totalWork) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void update(int completed) {
+                    }
+
+                    @Override
+                    public void endTask() {
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return false;
+                    }
+                });
+                return null;
+            }
+        });
+        try {
+            assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+            new JGitHelper(GitConfig.defaults(), Deadline.after(5000)).cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+            assertThat(jGit.getLatestRevision(testRepository.getAbsolutePath()).getRevision(), is("012e893acea10b140688d11beaa728e8c60bd9f6"));
+        } finally {
+            release.countDown();
+            maintenance.get(5, TimeUnit.SECONDS);
+            executor.shutdown();
+        }
+
+        jGit.cloneOrFetchBare(simpleGitRepository.getAbsolutePath(), testRepository.getAbsolutePath());
+
+        assertThat(jGit.getLatestRevision(testRepository.getAbsolutePath()).getRevision(), is("24ce45d1a1427b643ae859777417bbc9f0d7cec8"));
+    }
+
+    private List<String> tagsOf(File folder) throws Exception {
+        Git git = Git.open(folder);
+        try {
+            List<String> tags = new ArrayList<String>();
+            for (Ref tag : git.tagList().call()) {
+                tags.add(tag.getName());
+            }
+            return tags;
+        } finally {
+            git.getRepository().close();
+        }
+    }
+
     private void extractToTmp(String zipResourcePath) throws IOException {
         File zipFile = new File("/tmp", UUID.randomUUID().toString() + ".zip");
 
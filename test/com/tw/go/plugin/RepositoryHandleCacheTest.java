@@ -0,0 +1,68 @@
+package com.tw.go.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.UUID;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RepositoryHandleCacheTest {
+    private File testDir = new File("/tmp", UUID.randomUUID().toString());
+    private File first = new File(testDir, "first");
+    private File second = new File(testDir, "second");
+
+    @Before
+    public void setUp() throws Exception {
+        Git.init().setBare(true).setDirectory(first).call().close();
+        Git.init().setBare(true).setDirectory(second).call().close();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(testDir);
+    }
+
+    @Test
+    public void shouldReuseOpenHandleForSameFolder() throws Exception {
+        RepositoryHandleCache cache = new RepositoryHandleCache(10, Long.MAX_VALUE);
+
+        Repository repository = cache.acquire(first);
+        cache.release(repository);
+
+        assertThat(cache.acquire(new File(first, ".")) == repository, is(true));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedUnreferencedHandleWhenOverCapacity() throws Exception {
+        RepositoryHandleCache cache = new RepositoryHandleCache(1, Long.MAX_VALUE);
+
+        Repository firstRepository = cache.acquire(first);
+        Repository secondRepository = cache.acquire(second);
+        assertThat(cache.size(), is(2));
+
+        cache.release(firstRepository);
+        cache.release(secondRepository);
+        cache.acquire(first);
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.acquire(first) == firstRepository, is(false));
+    }
+
+    @Test
+    public void shouldEvictIdleHandles() throws Exception {
+        RepositoryHandleCache cache = new RepositoryHandleCache(10, 0);
+
+        cache.release(cache.acquire(first));
+        cache.evictIdle();
+
+        assertThat(cache.size(), is(0));
+    }
+}
@@ -0,0 +1,115 @@
+package com.tw.go.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RevisionCacheTest {
+    private File cacheFile = new File("/tmp", UUID.randomUUID().toString());
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(cacheFile);
+        FileUtils.deleteQuietly(new File(cacheFile.getPath() + ".tmp"));
+    }
+
+    @Test
+    public void shouldReadBackRevisionsWrittenByAnEarlierInstance() throws Exception {
+        ObjectId commit = id(1);
+        new RevisionCache(cacheFile, 10).put(commit, new Revision(commit.getName(), 1422168000, "comment\nwith lines", "user@example.com",
+                asList(new ModifiedFile("a.txt", "modified"), new ModifiedFile("b.txt", "add"), new ModifiedFile("c.txt", "copied"))));
+
+        Revision revision = new RevisionCache(cacheFile, 10).get(commit);
+
+        assertThat(revision.getRevision(), is(commit.getName()));
+        assertThat(revision.getTimestamp().getTime(), is(1422168000L));
+        assertThat(revision.getComment(), is("comment\nwith lines"));
+        assertThat(revision.getUser(), is("user@example.com"));
+        assertThat(revision.getModifiedFiles().size(), is(3));
+        assertThat(revision.getModifiedFiles().get(1).getAction(), is("add"));
+        assertThat(revision.getModifiedFiles().get(2).getFileName(), is("c.txt"));
+        assertThat(revision.getModifiedFiles().get(2).getAction(), is("copied"));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedRevisionsAndCompactFile() throws Exception {
+        RevisionCache cache = new RevisionCache(cacheFile, 2);
+        for (int i = 0; i < 6; i++) {
+            cache.put(id(i), revision(i));
+        }
+
+        assertThat(cache.size(), is(2));
+        RevisionCache reloaded = new RevisionCache(cacheFile, 2);
+        assertThat(reloaded.get(id(0)) == null, is(true));
+        assertThat(reloaded.get(id(5)).getRevision(), is(id(5).getName()));
+    }
+
+    @Test
+    public void shouldDropRecordCutShortByACrash() throws Exception {
+        RevisionCache cache = new RevisionCache(cacheFile, 10);
+        cache.put(id(1), revision(1));
+        cache.put(id(2), revision(2));
+        RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        RevisionCache reloaded = new RevisionCache(cacheFile, 10);
+        assertThat(reloaded.size(), is(1));
+        reloaded.put(id(3), revision(3));
+
+        assertThat(new RevisionCache(cacheFile, 10).get(id(3)).getRevision(), is(id(3).getName()));
+    }
+
+    @Test
+    public void shouldKeepResidentRevisionsWithinMemoryBudget() throws Exception {
+        RevisionCache unbounded = new RevisionCache(cacheFile, 100);
+        unbounded.put(id(0), revision(0));
+        long perRevision = unbounded.getResidentBytes();
+        FileUtils.deleteQuietly(cacheFile);
+
+        RevisionCache cache = new RevisionCache(cacheFile, 100, 3 * perRevision);
+        for (int i = 0; i < 10; i++) {
+            cache.put(id(i), revision(i));
+        }
+
+        assertThat(cache.size(), is(3));
+        assertThat(cache.getResidentBytes() <= 3 * perRevision, is(true));
+        assertThat(new RevisionCache(cacheFile, 100, 3 * perRevision).size(), is(3));
+    }
+
+    @Test
+    public void shouldUnloadLeastRecentlyUsedRepositoryOverSharedBudget() throws Exception {
+        File first = new File(cacheFile, "first");
+        File second = new File(cacheFile, "second");
+        first.mkdirs();
+        second.mkdirs();
+        RevisionCache firstCache = RevisionCache.forRepository(first, GitConfig.defaults());
+        firstCache.put(id(1), revision(1));
+        RevisionCache secondCache = RevisionCache.forRepository(second, GitConfig.defaults());
+        secondCache.put(id(2), revision(2));
+
+        RevisionCache.unloadLeastRecentlyUsed(secondCache.getResidentBytes(), secondCache);
+
+        assertThat(firstCache.getResidentBytes(), is(0L));
+        assertThat(secondCache.getResidentBytes() > 0, is(true));
+        assertThat(firstCache.get(id(1)).getRevision(), is(id(1).getName()));
+    }
+
+    private ObjectId id(int i) {
+        return ObjectId.fromString(String.format("%040x", i + 1));
+    }
+
+    private Revision revision(int i) {
+        return new Revision(id(i).getName(), i, "comment " + i, "user", new ArrayList<ModifiedFile>());
+    }
+}
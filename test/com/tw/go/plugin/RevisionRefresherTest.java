@@ -0,0 +1,151 @@
+package com.tw.go.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RevisionRefresherTest {
+    private File testDir = new File("/tmp", UUID.randomUUID().toString());
+    private File source = new File(testDir, "source");
+    private String flyweight = new File(testDir, "flyweight").getAbsolutePath();
+    private Map<String, String> configuration = Collections.singletonMap(GitConfig.URL, source.getAbsolutePath());
+    private Git git;
+    private RevisionRefresher refresher;
+
+    @Before
+    public void setUp() throws Exception {
+        git = Git.init().setDirectory(source).call();
+    }
+
+    @After
+    public void tearDown() {
+        if (refresher != null) {
+            refresher.shutdown();
+        }
+        git.getRepository().close();
+        FileUtils.deleteQuietly(testDir);
+    }
+
+    @Test
+    public void shouldAnswerFromLastFetchWhileRefreshingInBackground() throws Exception {
+        refresher = new RevisionRefresher(200, 60000, 5000, 60000, 1);
+        String first = commit("first");
+
+        assertThat(refresher.getLatestRevision(source.getAbsolutePath(), flyweight, configuration).getRevision(), is(first));
+
+        String second = commit("second");
+        assertThat(refresher.getLatestRevision(source.getAbsolutePath(), flyweight, configuration).getRevision(), is(first));
+
+        long giveUpAt = System.currentTimeMillis() + 10000;
+        String latest = first;
+        while (!latest.equals(second) && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(50);
+            latest = refresher.getLatestRevision(source.getAbsolutePath(), flyweight, configuration).getRevision();
+        }
+        assertThat(latest, is(second));
+    }
+
+    @Test
+    public void shouldRefreshBeforeAnsweringWhenLastFetchIsTooOld() throws Exception {
+        refresher = new RevisionRefresher(60000, 0, 5000, 60000, 1);
+        commit("first");
+        refresher.getLatestRevision(source.getAbsolutePath(), flyweight, configuration);
+
+        String second = commit("second");
+
+        assertThat(refresher.getLatestRevision(source.getAbsolutePath(), flyweight, configuration).getRevision(), is(second));
+    }
+
+    @Test
+    public void shouldNotAnswerWithRefreshOfPreviousBranch() throws Exception {
+        refresher = new RevisionRefresher(60000, 60000, 5000, 60000, 2);
+        String first = commit("first");
+        git.checkout().setCreateBranch(true).setName("topic").call();
+        String second = commit("second");
+        git.checkout().setName(Constants.MASTER).call();
+        final Map<String, String> topic = new HashMap<String, String>(configuration);
+        topic.put(GitConfig.BRANCH, "topic");
+
+        // keeps the refresh for master in flight until the branch has changed
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Lock lock = FolderLocks.getInstance().lockFor(flyweight);
+                    lock.lock();
+                    try {
+                        locked.countDown();
+                        release.await();
+                    } finally {
+                        lock.unlock();
+                    }
+                    return null;
+                }
+            });
+            assertThat(locked.await(5, TimeUnit.SECONDS), is(true));
+            Future<Revision> onMaster = executor.submit(new Callable<Revision>() {
+                @Override
+                public Revision call() throws Exception {
+                    return refresher.getLatestRevision(source.getAbsolutePath(), flyweight, configuration);
+                }
+            });
+            Thread.sleep(200);
+            Future<Revision> onTopic = executor.submit(new Callable<Revision>() {
+                @Override
+                public Revision call() throws Exception {
+                    return refresher.getLatestRevision(source.getAbsolutePath(), flyweight, topic);
+                }
+            });
+            Thread.sleep(200);
+            release.countDown();
+
+            assertThat(onTopic.get(10, TimeUnit.SECONDS).getRevision(), is(second));
+            assertThat(onMaster.get(10, TimeUnit.SECONDS).getRevision(), is(first));
+            assertThat(refresher.getLatestRevision(source.getAbsolutePath(), flyweight, topic).getRevision(), is(second));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldStopRefreshingOnShutdown() throws Exception {
+        refresher = new RevisionRefresher(200, 60000, 5000, 60000, 1);
+        commit("first");
+        refresher.getLatestRevision(source.getAbsolutePath(), flyweight, configuration);
+        assertThat(refresher.isEnabled(), is(true));
+
+        refresher.shutdown();
+
+        assertThat(refresher.isEnabled(), is(false));
+        assertThat(new RevisionRefresher(0, 0, 5000, 60000, 1).isEnabled(), is(false));
+    }
+
+    private String commit(String message) throws Exception {
+        FileUtils.writeStringToFile(new File(source, message + ".txt"), message);
+        git.add().addFilepattern(message + ".txt").call();
+        return git.commit().setMessage(message).call().getName();
+    }
+}
@@ -0,0 +1,39 @@
+package com.tw.go.plugin;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RevisionsJsonWriterTest {
+    @Test
+    public void shouldWriteNothingWhenThereAreNoRevisions() throws Exception {
+        RevisionsJsonWriter writer = new RevisionsJsonWriter();
+
+        assertThat(writer.getCount(), is(0));
+        assertThat(writer.toJson() == null, is(true));
+    }
+
+    @Test
+    public void shouldStreamRevisionsInOrder() throws Exception {
+        RevisionsJsonWriter writer = new RevisionsJsonWriter();
+        writer.handle(new Revision("sha-2", 2000, "second", "user@example.com", asList(new ModifiedFile("a.txt", "modified"))));
+        writer.handle(new Revision("sha-1", 1000, "first <b>", "user@example.com", asList(new ModifiedFile("b.txt", "added"), new ModifiedFile("c.txt", "deleted"))));
+
+        Map response = new Gson().fromJson(writer.toJson(), Map.class);
+        List<Map> revisions = (List<Map>) response.get("revisions");
+
+        assertThat(writer.getCount(), is(2));
+        assertThat(revisions.size(), is(2));
+        assertThat((String) revisions.get(0).get("revision"), is("sha-2"));
+        assertThat((String) revisions.get(1).get("revisionComment"), is("first <b>"));
+        List<Map> modifiedFiles = (List<Map>) revisions.get(1).get("modifiedFiles");
+        assertThat((String) modifiedFiles.get(1).get("fileName"), is("c.txt"));
+        assertThat((String) modifiedFiles.get(1).get("action"), is("deleted"));
+    }
+}
@@ -0,0 +1,59 @@
+package com.tw.go.plugin;
+
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class StorageConfigTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void shouldSplitMemoryBudgetBetweenJGitCaches() {
+        WindowCacheConfig config = new StorageConfig(100 * MB, 64 * 1024, 32, true).toWindowCacheConfig();
+
+        assertThat(config.getPackedGitLimit(), is(80 * MB));
+        assertThat(config.getDeltaBaseCacheLimit(), is((int) (20 * MB)));
+        assertThat(config.getStreamFileThreshold(), is((int) (10 * MB)));
+        assertThat(config.getPackedGitWindowSize(), is(64 * 1024));
+        assertThat(config.getPackedGitOpenFiles(), is(32));
+        assertThat(config.isPackedGitMMAP(), is(true));
+    }
+
+    @Test
+    public void shouldKeepSettingsJGitAcceptsForTinyBudgets() {
+        WindowCacheConfig config = new StorageConfig(0, 1000, 0, false).toWindowCacheConfig();
+
+        assertThat(config.getPackedGitWindowSize(), is(4096));
+        assertThat(config.getPackedGitLimit() >= config.getPackedGitWindowSize(), is(true));
+        assertThat(config.getDeltaBaseCacheLimit(), is((int) MB));
+        assertThat(config.getPackedGitOpenFiles(), is(1));
+    }
+
+    @Test
+    public void shouldReportPackCacheUsage() {
+        StorageConfig.getInstance().install();
+        StorageConfig.getInstance().sample();
+
+        String snapshot = StorageConfig.getInstance().getSnapshot();
+
+        assertThat(snapshot.contains("pack.cache.bytes -1"), is(false));
+        assertThat(snapshot.contains("pack.cache.full.rate"), is(true));
+    }
+
+    @Test
+    public void shouldReportStatisticsUnavailableWhenJGitLacksThem() {
+        StorageConfig.WindowCacheStats stats = new StorageConfig.WindowCacheStats(StorageConfig.WINDOW_CACHE, "getNoSuchCounter", "getOpenFiles");
+        StorageConfig storage = new StorageConfig(100 * MB, 8192, 32, false, stats);
+
+        storage.sample();
+
+        assertThat(stats.isAvailable(), is(false));
+        assertThat(stats.getOpenFiles(), is(-1L));
+        assertThat(storage.getFullRate(), is(0.0));
+        assertThat(storage.getSnapshot().contains("pack.cache.bytes unavailable"), is(true));
+        assertThat(storage.getSnapshot().contains("pack.cache.open.files unavailable"), is(true));
+        assertThat(new StorageConfig.WindowCacheStats("org.eclipse.jgit.NoSuchCache", "getOpenBytes", "getOpenFiles").isAvailable(), is(false));
+    }
+}